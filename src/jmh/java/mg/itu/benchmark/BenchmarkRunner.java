@@ -0,0 +1,26 @@
+package mg.itu.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line and always
+ * attaches the GC profiler so every run reports the allocation rate next to the throughput.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        // the benchmarks named on the command line, all of them otherwise
+        if (commandLine.getIncludes().isEmpty()) options.include("mg\\.itu\\.benchmark\\..*");
+        options.addProfiler(GCProfiler.class);
+
+        new Runner(options.build()).run();
+    }
+}
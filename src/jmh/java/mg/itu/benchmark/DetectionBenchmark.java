@@ -0,0 +1,173 @@
+package mg.itu.benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.FrameContext;
+import mg.itu.algo.OffsideDecision;
+import mg.itu.algo.StageTimings;
+import mg.itu.entity.Player;
+import mg.itu.generator.PitchSceneGenerator;
+import mg.itu.generator.SceneConfig;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.FrameCache;
+import mg.itu.utils.GoalCache;
+import mg.itu.utils.GoalCageUtils;
+import mg.itu.utils.ImageProcessingUtils;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image stages and the full analysis at broadcast resolutions.
+ * Run with: java -jar target/benchmarks.jar DetectionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+
+    // the forked benchmark JVM creates the Mat fields before any other class loads the library
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // goal frames are upright on vertical fields, so detectGoal has a real goal to find
+    private static final Algo.FieldOrientation ORIENTATION = Algo.FieldOrientation.VERTICAL;
+
+    @Param({ "1280x720", "1920x1080", "3840x2160" })
+    public String resolution;
+
+    @Param({ "10", "22" })
+    public int playerCount;
+
+    private Mat scene;
+    private final Mat segmentLabels = new Mat();
+    private final GoalCache goalCache = new GoalCache();
+    private File sceneFile;
+    private File renderFile;
+    private long frameCacheBytes;
+    private final FrameCache frameCache = new FrameCache(FrameCache.DEFAULT_MAX_BYTES);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String[] size = resolution.split("x");
+        SceneConfig config = new SceneConfig(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 
+            playerCount / 2, playerCount - playerCount / 2, ORIENTATION);
+        scene = PitchSceneGenerator.render(new PitchSceneGenerator(42).generate(config), false);
+
+        sceneFile = File.createTempFile("scene-" + resolution + "-", ".jpg");
+        renderFile = File.createTempFile("render-" + resolution + "-", ".jpg");
+        if (!Imgcodecs.imwrite(sceneFile.getPath(), scene))
+        { throw new Exception("Failed to write benchmark scene " + sceneFile); }
+
+        // the analyze benchmarks read the same file every time, they measure its decoding, not a cache hit
+        frameCacheBytes = FrameCache.SHARED.getMaxBytes();
+        FrameCache.SHARED.setMaxBytes(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scene.release();
+        segmentLabels.release();
+        sceneFile.delete();
+        renderFile.delete();
+        FrameCache.SHARED.setMaxBytes(frameCacheBytes);
+        frameCache.clear();
+    }
+
+    /** Lookup-table segmentation of the whole frame into blue/red/ball/background labels. */
+    @Benchmark
+    public Mat segment() {
+        segmentLabels.create(scene.rows(), scene.cols(), CvType.CV_8UC1);
+        ColorClassifier.DEFAULT.classify(scene, segmentLabels);
+        return segmentLabels;
+    }
+
+    /** Previous segmentation: HSV conversion and one inRange per colour range. */
+    @Benchmark
+    public List<Player> detectPlayersInHsv() throws Exception {
+        try (FrameContext frame = new FrameContext(scene, false)) 
+        { return ImageProcessingUtils.detectPlayersInHsv(frame.getHsv()); }
+    }
+
+    @Benchmark
+    public List<Player> detectPlayers() 
+    { return ImageProcessingUtils.detectPlayers(scene); }
+
+    /** Previous extraction (findContours + moments per contour), to compare with detectPlayers. */
+    @Benchmark
+    public List<Player> detectPlayersByContours() throws Exception {
+        try (FrameContext frame = new FrameContext(scene, false)) 
+        { return ImageProcessingUtils.detectPlayersInHsv(frame.getHsv(), true); }
+    }
+
+    @Benchmark
+    public Point detectBall() 
+    { return ImageProcessingUtils.detectBall(scene); }
+
+    @Benchmark
+    public List<GoalCageUtils.Goal> detectGoal() throws Exception {
+        // the scene is shared across invocations, the context must not release it
+        try (FrameContext frame = new FrameContext(scene, false)) 
+        { return GoalCageUtils.detectGoal(frame, null); }
+    }
+
+    /** Same goals checked against the cache filled by the first invocation. */
+    @Benchmark
+    public List<GoalCageUtils.Goal> detectGoalCached() throws Exception {
+        try (FrameContext frame = new FrameContext(scene, false)) 
+        { return goalCache.detect(frame); }
+    }
+
+    /** Decode, detection and rules, nothing drawn or written. */
+    @Benchmark
+    public OffsideDecision analyzeVerdictOnly() throws Exception {
+        try (FrameContext frame = new FrameContext(sceneFile.getPath())) 
+        { return Algo.analyze(frame, false, ORIENTATION, null, new StageTimings()); }
+    }
+
+    /** Verdict only with coarse-to-fine detection (automatic factor, 1 up to 1919 px wide). */
+    @Benchmark
+    public OffsideDecision analyzeVerdictOnlyPyramid() throws Exception {
+        try (FrameContext frame = new FrameContext(sceneFile.getPath())) {
+            frame.setPyramidFactor(0);
+            return Algo.analyze(frame, false, ORIENTATION, null, new StageTimings());
+        }
+    }
+
+    /** Same as the GUI path: decode, detection, rules, drawing and JPEG encoding. */
+    @Benchmark
+    public OffsideDecision analyzeRendered() throws Exception {
+        try (FrameContext frame = new FrameContext(sceneFile.getPath())) 
+        { return Algo.analyze(frame, false, ORIENTATION, renderFile.getPath(), new StageTimings()); }
+    }
+
+    /** Verdict only on a frame found in a frame cache, as when a batch reuses an image: detection and rules. */
+    @Benchmark
+    public OffsideDecision analyzeVerdictOnlyCached() throws Exception {
+        try (FrameContext frame = new FrameContext(frameCache.read(sceneFile.getPath()))) 
+        { return Algo.analyze(frame, false, ORIENTATION, null, new StageTimings()); }
+    }
+}
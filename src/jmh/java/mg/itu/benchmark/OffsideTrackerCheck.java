@@ -0,0 +1,105 @@
+package mg.itu.benchmark;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.OffsideEvaluator;
+import mg.itu.algo.OffsideTracker;
+import mg.itu.entity.PlayerSet;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link OffsideTracker} agrees with a full {@link OffsideEvaluator} pass after
+ * every update of random plays: players drifting, jumping across the field, sharing grid
+ * positions (ties) and landing on coordinate 0, in both orientations.
+ * Run with: java -cp target/benchmarks.jar mg.itu.benchmark.OffsideTrackerCheck [plays] [seed]
+ */
+public class OffsideTrackerCheck {
+
+    private static final int UPDATES_PER_PLAY = 200;
+    private static final int MAX_PLAYERS = 24;
+
+    public static void main(String[] args) {
+        int plays = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+
+        Random random = new Random(seed);
+        OffsideEvaluator evaluator = new OffsideEvaluator();
+        PlayerSet playerSet = new PlayerSet();
+        long checkCount = 0;
+        long mismatchCount = 0;
+
+        for (int play = 0; play < plays; play++) {
+            int width = 100 + random.nextInt(2000);
+            int height = 100 + random.nextInt(2000);
+            int playerCount = random.nextInt(MAX_PLAYERS + 1);
+            // players on a 5x5 grid share coordinates, exercising every tie-break
+            boolean isGrid = random.nextInt(3) == 0;
+            Algo.FieldOrientation orientation = random.nextBoolean()
+                ? Algo.FieldOrientation.HORIZONTAL
+                : Algo.FieldOrientation.VERTICAL;
+
+            OffsideTracker tracker = new OffsideTracker(width, height, orientation);
+            double[] x = new double[playerCount];
+            double[] y = new double[playerCount];
+            boolean[] isBlue = new boolean[playerCount];
+            for (int i = 0; i < playerCount; i++) {
+                x[i] = isGrid ? random.nextInt(5) * width / 4 : random.nextInt(width);
+                y[i] = isGrid ? random.nextInt(5) * height / 4 : random.nextInt(height);
+                isBlue[i] = random.nextBoolean();
+                tracker.add(x[i], y[i], isBlue[i]);
+            }
+
+            for (int update = 0; update < UPDATES_PER_PLAY; update++) {
+                int moveCount = playerCount == 0 ? 0 : 1 + random.nextInt(playerCount + 1);
+                for (int m = 0; m < moveCount; m++) {
+                    int i = random.nextInt(playerCount);
+                    // mostly a drift of a few pixels, sometimes a jump
+                    double step = random.nextInt(10) == 0 ? 500 : 5;
+                    x[i] = isGrid ? random.nextInt(5) * width / 4 : x[i] + (random.nextDouble() - 0.5) * step;
+                    y[i] = isGrid ? random.nextInt(5) * height / 4 : y[i] + (random.nextDouble() - 0.5) * step;
+                    if (random.nextInt(50) == 0) {
+                        x[i] = 0;
+                        y[i] = 0;
+                    }
+                    tracker.setPosition(i, x[i], y[i]);
+                }
+
+                double ballX = random.nextInt(width);
+                double ballY = random.nextInt(height);
+                tracker.setBall(ballX, ballY);
+
+                playerSet.clear();
+                for (int i = 0; i < playerCount; i++) playerSet.add(x[i], y[i], isBlue[i]);
+                evaluator.evaluate(playerSet, width, height, orientation, ballX, ballY);
+
+                checkCount++;
+                if (!isSame(evaluator, playerSet, tracker)) {
+                    if (mismatchCount++ == 0) System.err.println("First mismatch in play " + play + " at update " + update);
+                }
+            }
+        }
+
+        System.out.printf("%d mismatches over %d updates%n", mismatchCount, checkCount);
+        if (mismatchCount > 0) System.exit(1);
+    }
+
+    private static boolean isSame(OffsideEvaluator evaluator, PlayerSet playerSet, OffsideTracker tracker) {
+        boolean isSame = evaluator.getBallCarrier() == tracker.getBallCarrier()
+            && evaluator.getOffsideCount() == tracker.getOffsideCount();
+
+        for (boolean isBlueTeam : new boolean[] { true, false }) {
+            isSame &= evaluator.getGoalkeeper(isBlueTeam) == tracker.getGoalkeeper(isBlueTeam)
+                && evaluator.getLastDefender(isBlueTeam) == tracker.getLastDefender(isBlueTeam)
+                && evaluator.getSecondLastDefender(isBlueTeam) == tracker.getSecondLastDefender(isBlueTeam);
+        }
+
+        for (int i = 0; i < playerSet.size(); i++)
+        { isSame &= playerSet.isOffside(i) == tracker.isOffside(i); }
+
+        if (evaluator.getBallCarrier() != OffsideEvaluator.NONE) {
+            isSame &= Double.compare(evaluator.getOffsideLine(),
+                tracker.getOffsideLine(evaluator.isAttackingBlue())) == 0;
+        }
+        return isSame;
+    }
+}
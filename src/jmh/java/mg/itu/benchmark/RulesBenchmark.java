@@ -0,0 +1,119 @@
+package mg.itu.benchmark;
+
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.OffsideEvaluator;
+import mg.itu.algo.OffsideTracker;
+import mg.itu.entity.Player;
+import mg.itu.entity.PlayerSet;
+import mg.itu.generator.PitchSceneGenerator;
+import mg.itu.generator.SceneConfig;
+import mg.itu.generator.SyntheticScene;
+import mg.itu.utils.PlayerUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offside rule layer on already detected players, per player count and orientation: the
+ * evaluator used by the analysis, next to the previous PlayerUtils rules.
+ * Run with: java -jar target/benchmarks.jar RulesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RulesBenchmark {
+
+    @Param({ "10", "22", "44" })
+    public int playerCount;
+
+    @Param({ "HORIZONTAL", "VERTICAL" })
+    public Algo.FieldOrientation orientation;
+
+    private List<Player> players;
+    private Player playerWithBall;
+    private Player lastDefender;
+    private Size fieldSize;
+    private Point ballCenter;
+    private final PlayerSet playerSet = new PlayerSet();
+    private final OffsideEvaluator evaluator = new OffsideEvaluator();
+    private OffsideTracker tracker;
+    private int movedPlayer;
+    private double drift = 2;
+
+    @Setup
+    public void setUp() {
+        fieldSize = new Size(1920, 1080);
+        SceneConfig config = new SceneConfig(1920, 1080, playerCount / 2, playerCount - playerCount / 2, orientation);
+        config.isOffside = true;
+        SyntheticScene scene = new PitchSceneGenerator(42).generate(config);
+
+        players = scene.players;
+        playerWithBall = scene.playerWithBall;
+        lastDefender = PlayerUtils.findLastDefender(players, playerWithBall, playerWithBall.isBlueTeam, fieldSize, orientation);
+        ballCenter = scene.ballCenter;
+        playerSet.setAll(players, false);
+
+        tracker = new OffsideTracker(fieldSize.width, fieldSize.height, orientation);
+        for (Player player : players) tracker.add(player.position.x, player.position.y, player.isBlueTeam);
+        tracker.setBall(ballCenter.x, ballCenter.y);
+    }
+
+    /** Every rule in one pass, as run by the analysis, on an already filled player set. */
+    @Benchmark
+    public OffsideEvaluator evaluate() {
+        evaluator.evaluate(playerSet, fieldSize.width, fieldSize.height, orientation, ballCenter.x, ballCenter.y);
+        return evaluator;
+    }
+
+    /** Same, filling the player set from the detected players first like Algo.evaluateOffside. */
+    @Benchmark
+    public OffsideEvaluator evaluateFromPlayers() {
+        playerSet.setAll(players, false);
+        evaluator.evaluate(playerSet, fieldSize.width, fieldSize.height, orientation, ballCenter.x, ballCenter.y);
+        return evaluator;
+    }
+
+    /** One player drifting a few pixels then the verdict, kept current by the streaming tracker. */
+    @Benchmark
+    public int trackUpdate() {
+        int player = movedPlayer;
+        movedPlayer = (movedPlayer + 1) % tracker.size();
+        // back and forth, the players stay around their generated positions
+        if (movedPlayer == 0) drift = -drift;
+
+        tracker.setPosition(player, tracker.getX(player) + drift, tracker.getY(player) + drift);
+        tracker.setBall(ballCenter.x, ballCenter.y);
+        return tracker.getOffsideCount();
+    }
+
+    @Benchmark
+    public Player findLastDefender() 
+    { return PlayerUtils.findLastDefender(players, playerWithBall, playerWithBall.isBlueTeam, fieldSize, orientation); }
+
+    @Benchmark
+    public List<Player> findOffsidePlayers() 
+    { return PlayerUtils.findOffsidePlayers(players, lastDefender, playerWithBall.isBlueTeam, playerWithBall, orientation); }
+
+    @Benchmark
+    public Player findGoalkeeper() {
+        Point goal = PlayerUtils.getGoalPosition(fieldSize, !playerWithBall.isBlueTeam, orientation);
+        return PlayerUtils.findGoalkeeper(players, !playerWithBall.isBlueTeam, goal);
+    }
+}
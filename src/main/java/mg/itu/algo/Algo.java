@@ -4,15 +4,20 @@ import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import mg.itu.entity.Player;
+import mg.itu.entity.PlayerSet;
 import mg.itu.utils.DrawingUtils;
 import mg.itu.utils.GoalCageUtils;
+import mg.itu.utils.GoalCache;
 import mg.itu.utils.GoalCageUtils.Goal;
-import mg.itu.utils.ImageProcessingUtils;
-import mg.itu.utils.PlayerUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Algo {
 
@@ -23,9 +28,27 @@ public class Algo {
     // CONSTANTS
     public static final int ATTACK_ARROW_OFFSET = 100;
     public static final String IMG_FILE_PATH = "img/picture.jpg";
+    public static final String SHOOT_IMG_FILE_PATH = "img/shoot.jpg";
+    public static final String GOALS_IMG_FILE_PATH = "img/detected_goals.jpg";
 
-    private static int blueTeamScore = 0;
-    private static int redTeamScore = 0;
+    // scoreboard of the legacy static entry points, sessions keep their own
+    public static final MatchSession DEFAULT_SESSION = new MatchSession("default");
+
+    // rule engine state of each thread, reused from play to play
+    private static final ThreadLocal<PlayerSet> PLAYER_SET = ThreadLocal.withInitial(PlayerSet::new);
+    private static final ThreadLocal<OffsideEvaluator> EVALUATOR = ThreadLocal.withInitial(OffsideEvaluator::new);
+
+    // speculation needs a second core, on a single one it only delays the receive frame
+    private static final boolean HAS_SPARE_CORE = Runtime.getRuntime().availableProcessors() > 1;
+
+    // runs the shot frame of speculative plays, threads are kept so their Mat pools are reused
+    private static final ExecutorService SHOT_EXECUTOR = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        task -> {
+            Thread thread = new Thread(task, "shot-analysis");
+            thread.setDaemon(true);
+            return thread;
+        });
 
     public enum FieldOrientation {
         HORIZONTAL,
@@ -36,200 +59,453 @@ public class Algo {
         public boolean isOffside;
         public boolean isGoal;
         public String message;
+        public OffsideDecision decision;
+        public Point finalBallPosition;
+        public List<Goal> goals;
+        public StageTimings timings;
+
+        // score of the session right after this play, null outside a session
+        public MatchSession.Score score;
+
+        // annotated frames, only set when the play was rendered
+        public Mat receiveImage;
+        public Mat shotImage;
         
         public AnalysisResult(boolean isOffside, boolean isGoal, String message) {
             this.isOffside = isOffside;
             this.isGoal = isGoal;
             this.message = message;
         }
+
+        /**
+         * Frees the annotated frames, the verdict itself stays available.
+         */
+        public void release() {
+            if (receiveImage != null) receiveImage.release();
+            if (shotImage != null) shotImage.release();
+
+            receiveImage = null;
+            shotImage = null;
+        }
     }
 
     public static boolean analyze(String imagePath, boolean isReversedOrientation, FieldOrientation imageOrientation) 
         throws Exception 
     {
-        Mat image = Imgcodecs.imread(imagePath);
-        if (image.empty()) 
-            throw new Exception("Failed to read input image: " + imagePath);
-        
-        // Process image
-        FieldOrientation orientation = imageOrientation;
-        List<Player> players = ImageProcessingUtils.detectPlayers(image);
-        Point ballCenter = ImageProcessingUtils.detectBall(image);
+        try (FrameContext frame = new FrameContext(imagePath)) 
+        { return analyze(frame, isReversedOrientation, imageOrientation); }
+    }
+
+    public static boolean analyze(FrameContext frame, boolean isReversedOrientation, FieldOrientation imageOrientation) 
+        throws Exception 
+    { return analyze(frame, isReversedOrientation, imageOrientation, IMG_FILE_PATH, new StageTimings()).isOffside(); }
+
+    /**
+     * Runs the offside rules on the frame and, when an output path is given, 
+     * draws the analysis on a copy of the frame and writes it there.
+     * A null output path is the verdict-only mode: nothing is drawn or written.
+     */
+    public static OffsideDecision analyze(FrameContext frame, boolean isReversedOrientation, 
+    FieldOrientation orientation, String outputPath, StageTimings timings) 
+        throws Exception 
+    {
+        OffsideDecision decision = evaluateOffside(frame, isReversedOrientation, orientation, timings);
+
+        if (outputPath != null) {
+            long start = System.nanoTime();
+            Mat image = renderOffsideAnalysis(frame, decision);
+            timings.record("receive.render", start);
+
+            start = System.nanoTime();
+            try 
+            { writeImage(outputPath, image); }
+            
+            finally 
+            { image.release(); }
+            timings.record("receive.encode", start);
+        }
+
+        return decision;
+    }
+
+    public static OffsideDecision evaluateOffside(FrameContext frame, boolean isReversedOrientation, 
+    FieldOrientation orientation, StageTimings timings) 
+        throws Exception 
+    {
+        long start = System.nanoTime();
+        frame.getBgr();
+        timings.record("receive.decode", start);
+
+        // tracked frames come with their detections, the whole frame needs no segmentation
+        start = System.nanoTime();
+        if (!frame.hasPlayers() || !frame.hasBallCenter()) frame.segment();
+        timings.record("receive.segment", start);
+
+        start = System.nanoTime();
+        List<Player> detectedPlayers = frame.getPlayers();
+        timings.record("receive.players", start);
+
+        start = System.nanoTime();
+        Point ballCenter = frame.getBallCenter();
+        timings.record("receive.ball", start);
         
-        if (players.isEmpty()) 
+        if (detectedPlayers.isEmpty()) 
             throw new Exception("No players detected in the image");
         
         if (ballCenter == null) 
             throw new Exception("No ball detected in the image");
+
+        start = System.nanoTime();
         
-        // Adjust player team assignments if orientation is reversed
-        if (isReversedOrientation) {
-            for (Player player : players) {
-                player.isBlueTeam = !player.isBlueTeam;
-            }
+        // Work on copies so the detections cached in the frame keep their original team
+        // and adjust player team assignments if orientation is reversed
+        List<Player> players = new ArrayList<>();
+        for (Player detected : detectedPlayers) {
+            Player player = new Player(detected.position, detected.isBlueTeam != isReversedOrientation);
+            player.id = detected.id;
+            players.add(player);
         }
         
-        Size fieldSize = new Size(image.width(), image.height());
-        detectGoalkeepers(players, fieldSize, image, orientation);
-
-        Player playerWithBall = ImageProcessingUtils.findClosestPlayer(players, ballCenter);
-        if (playerWithBall == null) 
-        { throw new Exception("Could not determine player with ball"); }
-        
-        Player lastDefenderBlue = PlayerUtils.findLastDefender(players, true, fieldSize, orientation);
+        Size fieldSize = new Size(frame.getWidth(), frame.getHeight());
 
-        Player lastDefenderRed = PlayerUtils.findLastDefender(players, false, fieldSize, orientation);
+        // the rules run on the thread's primitive player set, indices match the copies
+        PlayerSet playerSet = PLAYER_SET.get();
+        playerSet.setAll(players, false);
+        OffsideEvaluator evaluator = EVALUATOR.get();
+        evaluator.evaluate(playerSet, fieldSize.width, fieldSize.height, orientation, ballCenter.x, ballCenter.y);
 
-        Player lastDefenderPlayer = PlayerUtils.findLastDefender(
-            players, 
-            playerWithBall, 
-            playerWithBall.isBlueTeam, 
-            fieldSize, 
-            orientation
-        );
+        if (evaluator.getBallCarrier() == OffsideEvaluator.NONE) 
+        { throw new Exception("Could not determine player with ball"); }
 
-        if (playerWithBall.isBlueTeam) {
-            DrawingUtils.drawLastDefenderAndOffsideLine(
-                image, 
-                fieldSize, 
-                lastDefenderRed, 
-                new Scalar(255, 255, 0), 
-                "", 
-                orientation
-            );  
-        }
+        // Mark players as offside
+        List<Player> offsidePlayers = new ArrayList<>();
+        for (int i = 0; i < playerSet.size(); i++) {
+            if (!playerSet.isOffside(i)) continue;
 
-        else {
-            DrawingUtils.drawLastDefenderAndOffsideLine(
-                image, 
-                fieldSize, 
-                lastDefenderBlue, 
-                new Scalar(255, 0, 255), 
-                "", 
-                orientation
-            ); 
-        }
-        
-        // Reset offside status for all players
-        for (Player player : players) {
-            player.setOffside(false);
+            players.get(i).setOffside(true);
+            offsidePlayers.add(players.get(i));
         }
 
-        List<Player> offsidePlayers = PlayerUtils.findOffsidePlayers(
-            players, 
-            lastDefenderPlayer, 
-            playerWithBall.isBlueTeam, 
-            playerWithBall, 
-            orientation
-        );
-
-        // Mark players as offside
-        for (Player offside : offsidePlayers) {
-            offside.setOffside(true);
-        }
+        timings.record("rules", start);
 
-        // draw analyse
-        DrawingUtils.markOffsidePlayers(image, offsidePlayers);
-        DrawingUtils.drawAttackArrowsAndMarkReceivers(image, playerWithBall, players, orientation);   
-        DrawingUtils.drawAttackArrows(image, playerWithBall, players, orientation);
-        
-        // Write the result image and verify
-        boolean writeSuccess = Imgcodecs.imwrite(IMG_FILE_PATH, image);
+        return new OffsideDecision(players, ballCenter, fieldSize, orientation, evaluator, offsidePlayers);
+    }
 
-        if (!writeSuccess) 
-        { throw new Exception("Failed to write result image"); }
-        
-        File resultFile = new File(IMG_FILE_PATH);
-        if (!resultFile.exists() || resultFile.length() == 0) 
-        { throw new Exception("Result file was not created properly"); }
+    /**
+     * Copy of the frame with the offside analysis drawn on it, the caller releases it.
+     */
+    public static Mat renderOffsideAnalysis(FrameContext frame, OffsideDecision decision) throws Exception {
+        // Draw on a copy, the decoded frame is shared with the other stages
+        Mat image = frame.getBgr().clone();
+        drawOffsideAnalysis(image, decision);
+        return image;
+    }
 
-        if (offsidePlayers.size() == 0)
-        { return false; }
+    public static void drawOffsideAnalysis(Mat image, OffsideDecision decision) {
+        long start = System.nanoTime();
+
+        // the line of the defending team, in its colour
+        DrawingUtils.drawLastDefenderAndOffsideLine(
+            image, 
+            decision.fieldSize, 
+            decision.lastDefender, 
+            decision.isAttackingTeamBlue() ? new Scalar(255, 255, 0) : new Scalar(255, 0, 255), 
+            "", 
+            decision.orientation
+        );
 
-        else 
-        { return true; }
+        // draw analyse
+        DrawingUtils.markOffsidePlayers(image, decision.offsidePlayers);
+        DrawingUtils.drawAttackArrowsAndMarkReceivers(image, decision.playerWithBall, decision.players, decision.orientation);   
+        DrawingUtils.drawAttackArrows(image, decision.playerWithBall, decision.players, decision.orientation);
+        PipelineMetrics.record("draw", start);
     }
     
+    /**
+     * Legacy entry point scoring on {@link #DEFAULT_SESSION} and writing the annotated
+     * frames to the fixed {@link #IMG_FILE_PATH} and {@link #SHOOT_IMG_FILE_PATH}.
+     * Concurrent callers overwrite each other's images, use a {@link MatchSession} instead.
+     */
+    @Deprecated
     public static AnalysisResult analyzePlay(String receiveImage, String shootImage, 
     boolean isReversedOrientation, FieldOrientation orientation) 
         throws Exception 
     {
+        // every native buffer of the play is freed as soon as the verdict is known
+        try (FrameContext receiveFrame = new FrameContext(receiveImage); 
+             FrameContext shootFrame = new FrameContext(shootImage)) 
+        { return analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation); }
+    }
+
+    @Deprecated
+    public static AnalysisResult analyzePlay(FrameContext receiveFrame, FrameContext shootFrame, 
+    boolean isReversedOrientation, FieldOrientation orientation) 
+        throws Exception 
+    {
+        AnalysisResult result = DEFAULT_SESSION.analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, true);
+
+        try {
+            writeImage(IMG_FILE_PATH, result.receiveImage);
+            if (result.shotImage != null) writeImage(SHOOT_IMG_FILE_PATH, result.shotImage);
+        }
+
+        finally
+        { result.release(); }
+
+        return result;
+    }
+
+    /**
+     * Full play analysis without any shared state: nothing is written to disk and no 
+     * score is kept, see {@link MatchSession} for the scoring.
+     * When rendered, the annotated receive frame (and the shot frame when the play 
+     * is not offside) are returned in the result, which the caller must release.
+     */
+    public static AnalysisResult analyzePlay(FrameContext receiveFrame, FrameContext shootFrame, 
+    boolean isReversedOrientation, FieldOrientation orientation, boolean isRendered) 
+        throws Exception 
+    { return analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered, null); }
+
+    /**
+     * @param goalCache goals of the camera the shot frame comes from, 
+     * or null to detect the goals from scratch
+     */
+    public static AnalysisResult analyzePlay(FrameContext receiveFrame, FrameContext shootFrame, 
+    boolean isReversedOrientation, FieldOrientation orientation, boolean isRendered, GoalCache goalCache) 
+        throws Exception 
+    { return analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered, goalCache, false); }
+
+    /**
+     * @param isSpeculative whether the shot frame is analyzed on another core while the 
+     * receive frame is, instead of after it: the verdict comes about as soon as the slower 
+     * of the two frames is done. On an offside play the shot work is cancelled at its next 
+     * stage and discarded. Ignored on a single core. The shot frame may then still be in use 
+     * when the call returns, the caller must only close it.
+     */
+    public static AnalysisResult analyzePlay(FrameContext receiveFrame, FrameContext shootFrame, 
+    boolean isReversedOrientation, FieldOrientation orientation, boolean isRendered, GoalCache goalCache,
+    boolean isSpeculative) 
+        throws Exception 
+    {
+        StageTimings timings = new StageTimings();
+
+        AtomicBoolean isShotCancelled = new AtomicBoolean();
+        Future<ShotAnalysis> speculativeShot = null;
+        if (isSpeculative && HAS_SPARE_CORE) {
+            // the analysis holds the frame until it is done, even past an offside verdict
+            shootFrame.retain();
+            speculativeShot = SHOT_EXECUTOR.submit(() -> {
+                try 
+                { return analyzeShot(shootFrame, goalCache, isShotCancelled); }
+
+                finally 
+                { shootFrame.close(); }
+            });
+        }
+
         // analyse image-1
-        boolean isOffside = analyze(receiveImage, isReversedOrientation, orientation);
-        String message;
+        OffsideDecision decision;
+        try
+        { decision = evaluateOffside(receiveFrame, isReversedOrientation, orientation, timings); }
+
+        catch (Exception e) {
+            if (speculativeShot != null) discardShot(speculativeShot, isShotCancelled, shootFrame);
+            throw e;
+        }
 
-        Mat receiveFrame = Imgcodecs.imread(receiveImage);
-        if (receiveFrame.empty()) 
-        { throw new Exception("Failed to read receive image: " + receiveImage); }
+        boolean isOffside = decision.isOffside();
+        String message;
 
-        List<Player> players = ImageProcessingUtils.detectPlayers(receiveFrame);
-        Point ballCenter = ImageProcessingUtils.detectBall(receiveFrame);
-        Player receivingPlayer = ImageProcessingUtils.findClosestPlayer(players, ballCenter);
+        Mat receiveImage = null;
+        if (isRendered) {
+            long start = System.nanoTime();
+            try
+            { receiveImage = renderOffsideAnalysis(receiveFrame, decision); }
 
-        if (isReversedOrientation) {
-            for (Player player : players) 
-            { player.isBlueTeam = !player.isBlueTeam; }
+            catch (Exception e) {
+                if (speculativeShot != null) discardShot(speculativeShot, isShotCancelled, shootFrame);
+                throw e;
+            }
+            timings.record("receive.render", start);
         }
 
-        if (receivingPlayer == null) 
-        { throw new Exception("Could not determine receiving player"); }
+        // the receiving player is the player with the ball, teams already adjusted for the side
+        Player receivingPlayer = decision.playerWithBall;
 
         boolean isGoal = false;        
+        Point finalBallPosition = null;
+        List<Goal> cages = new ArrayList<>();
+        Mat shotImage = null;
 
         // no offside 
         if (!isOffside) {
-            // analyse image-2
-            Mat shootFrame = Imgcodecs.imread(shootImage);
-            if (shootFrame.empty()) 
-            { throw new Exception("Failed to read shoot image: " + shootImage); }
-
-            Point finalBallPosition = ImageProcessingUtils.detectBall(shootFrame);
-            if (finalBallPosition == null) 
-            { throw new Exception("No ball detected in the shoot image"); }
-
-            try {            
-                List<Goal> cages = GoalCageUtils.detectGoal(shootImage);
-                
-                if (finalBallPosition != null && !cages.isEmpty()) {
-                    for (GoalCageUtils.Goal goal : cages) {
-                        if (isBallInsideGoal(finalBallPosition, goal)) {
-                            isGoal = true;
-                            DrawingUtils.drawGoalIndicator(shootFrame, finalBallPosition);
-                            break;
-                        }
-                    }
-                }  
-            } 
-            
-            catch (Exception e) 
-            { System.err.println("Error during goal detection: " + e.getMessage()); }
+            // analyse image-2, or collect the speculative analysis
+            ShotAnalysis shot;
+            try {
+                shot = speculativeShot != null 
+                    ? joinShot(speculativeShot, isShotCancelled) 
+                    : analyzeShot(shootFrame, goalCache, isShotCancelled);
+            }
 
-            // Save the modified shoot frame
-            Imgcodecs.imwrite(IMG_FILE_PATH.replace("picture.jpg", "shoot.jpg"), shootFrame);
+            catch (Exception e) {
+                if (receiveImage != null) receiveImage.release();
+                throw e;
+            }
 
-            if (isGoal) {
-                if (receivingPlayer.isBlueTeam) {
-                    blueTeamScore++;
-                    message = "Goal for Blue team! Score: Blue " + blueTeamScore + " - Red " + redTeamScore;
-                } 
-                
-                else {
-                    redTeamScore++;
-                    message = "Goal for Red team! Score: Blue " + blueTeamScore + " - Red " + redTeamScore;
+            timings.merge(shot.timings);
+            finalBallPosition = shot.ballPosition;
+            cages = shot.goals;
+            isGoal = shot.isGoal;
+
+            // Annotate a copy of the shoot frame
+            if (isRendered) {
+                long start = System.nanoTime();
+                shotImage = shootFrame.getBgr().clone();
+                if (isGoal) {
+                    long drawStart = System.nanoTime();
+                    DrawingUtils.drawGoalIndicator(shotImage, finalBallPosition);
+                    PipelineMetrics.record("draw", drawStart);
                 }
+                timings.record("shot.render", start);
+            }
+
+            if (isGoal) {
+                message = receivingPlayer.isBlueTeam ? "Goal for Blue team!" : "Goal for Red team!";
             } 
             
             else {
                 message = "No goal.";
             }
-
-            return new AnalysisResult(isOffside, isGoal, message);
         }
 
         else {
+            if (speculativeShot != null) discardShot(speculativeShot, isShotCancelled, shootFrame);
             message = "Offside! Goal disallowed.";
-            return new AnalysisResult(isOffside, isGoal, message);
         }
+
+        AnalysisResult result = new AnalysisResult(isOffside, isGoal, message);
+        result.decision = decision;
+        result.finalBallPosition = finalBallPosition;
+        result.goals = cages;
+        result.timings = timings;
+        result.receiveImage = receiveImage;
+        result.shotImage = shotImage;
+        return result;
+    }
+
+    // detections of the shot frame, timed on the thread that ran them
+    private static class ShotAnalysis {
+        final StageTimings timings = new StageTimings();
+        Point ballPosition;
+        List<Goal> goals = new ArrayList<>();
+        boolean isGoal;
+    }
+
+    /**
+     * Ball and goals of the shot frame. A cancelled analysis stops before its next stage 
+     * and returns what it has, its result is never used.
+     */
+    private static ShotAnalysis analyzeShot(FrameContext shootFrame, GoalCache goalCache, AtomicBoolean isCancelled) 
+        throws Exception 
+    {
+        ShotAnalysis shot = new ShotAnalysis();
+
+        long start = System.nanoTime();
+        shootFrame.getBgr();
+        shot.timings.record("shot.decode", start);
+        if (isCancelled.get()) return shot;
+
+        start = System.nanoTime();
+        shot.ballPosition = shootFrame.getBallCenter();
+        shot.timings.record("shot.ball", start);
+
+        if (shot.ballPosition == null) 
+        { throw new Exception("No ball detected in the shoot image"); }
+        if (isCancelled.get()) return shot;
+
+        start = System.nanoTime();
+        try {            
+            shot.goals = goalCache != null 
+                ? goalCache.detect(shootFrame) 
+                : GoalCageUtils.detectGoal(shootFrame, null);
+            
+            for (GoalCageUtils.Goal goal : shot.goals) {
+                if (isBallInsideGoal(shot.ballPosition, goal)) {
+                    shot.isGoal = true;
+                    break;
+                }
+            }
+        } 
+        
+        catch (Exception e) 
+        { System.err.println("Error during goal detection: " + e.getMessage()); }
+        shot.timings.record("shot.goal", start);
+
+        return shot;
+    }
+
+    private static ShotAnalysis joinShot(Future<ShotAnalysis> shot, AtomicBoolean isCancelled) throws Exception {
+        try 
+        { return shot.get(); }
+
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw new Exception("Shot analysis failed", e.getCause());
+        }
+
+        catch (InterruptedException e) {
+            // the frame must not be released under the running analysis
+            cancelShot(shot, isCancelled);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the shot analysis at its next stage. A frame owning its image is freed by whichever 
+     * of the analysis and the caller closes it last, so the verdict does not wait for the 
+     * analysis; a borrowed image may be released by the caller right after, so it does.
+     */
+    private static void discardShot(Future<ShotAnalysis> shot, AtomicBoolean isCancelled, FrameContext shootFrame) {
+        if (shootFrame.isBgrOwned()) isCancelled.set(true);
+        else cancelShot(shot, isCancelled);
+    }
+
+    /**
+     * Stops the shot analysis at its next stage and waits for it, whatever its outcome.
+     */
+    private static void cancelShot(Future<ShotAnalysis> shot, AtomicBoolean isCancelled) {
+        isCancelled.set(true);
+        boolean isInterrupted = false;
+
+        while (true) {
+            try {
+                shot.get();
+                break;
+            }
+
+            catch (InterruptedException e) 
+            { isInterrupted = true; }
+
+            catch (ExecutionException e) 
+            { break; }
+        }
+
+        if (isInterrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void writeImage(String outputPath, Mat image) throws Exception {
+        // Write the result image and verify
+        long start = System.nanoTime();
+        boolean writeSuccess = Imgcodecs.imwrite(outputPath, image);
+        PipelineMetrics.record("encode", start);
+
+        if (!writeSuccess) 
+        { throw new Exception("Failed to write result image"); }
+        
+        File resultFile = new File(outputPath);
+        if (!resultFile.exists() || resultFile.length() == 0) 
+        { throw new Exception("Result file was not created properly"); }
     }
 
     private static boolean isBallInsideGoal(Point ballPosition, GoalCageUtils.Goal goal) {
@@ -266,16 +542,4 @@ public class Algo {
         
         return isBetweenPosts && isAtRightHeight && isWithinDepth;
     }
-
-    private static void detectGoalkeepers(List<Player> players, Size fieldSize, Mat image, FieldOrientation orientation) {
-        if (players.isEmpty()) return;
-
-        Point blueGoal = PlayerUtils.getGoalPosition(fieldSize, true, orientation);
-        Point redGoal = PlayerUtils.getGoalPosition(fieldSize, false, orientation);
-
-        Player blueGoalkeeper = PlayerUtils.findGoalkeeper(players, true, blueGoal);
-        Player redGoalkeeper = PlayerUtils.findGoalkeeper(players, false, redGoal);
-
-        // do something with GK if required
-    }
 }
\ No newline at end of file
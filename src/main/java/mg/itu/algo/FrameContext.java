@@ -0,0 +1,331 @@
+package mg.itu.algo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+import mg.itu.entity.Player;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.FrameCache;
+import mg.itu.utils.ImageProcessingUtils;
+import mg.itu.utils.MatPool;
+import mg.itu.utils.PyramidUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-frame state shared by every stage of an analysis.
+ * The image is decoded once, and the label/HSV/gray images and the detections
+ * are computed lazily the first time a stage asks for them.
+ *
+ * Closing the context frees its native buffers: the conversions go back to the
+ * thread's {@link MatPool} and the decoded image is released if the context owns it.
+ */
+public class FrameContext implements AutoCloseable {
+
+    private final String imagePath;
+    private final boolean isBgrOwned;
+    private MatPool pool;
+
+    private Mat bgr;
+    private Mat hsv;
+    private Mat gray;
+    private Mat labels;
+
+    // coarse level of the coarse-to-fine detection
+    private Mat coarseBgr;
+    private Mat coarseGray;
+    private Mat coarseLabels;
+
+    private ColorClassifier classifier = ColorClassifier.DEFAULT;
+    private int pyramidFactor = 1;
+
+    private List<Player> players;
+    private Point ballCenter;
+    private boolean isBallDetected;
+    private boolean isClosed;
+
+    // holders of the context: its creator, plus any analysis still running on it
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public FrameContext(String imagePath) {
+        this.imagePath = imagePath;
+        this.isBgrOwned = true;
+    }
+
+    /**
+     * Context over an already decoded frame, which the context takes ownership of.
+     */
+    public FrameContext(Mat bgr)
+    { this(bgr, true); }
+
+    /**
+     * @param isBgrOwned whether closing the context releases the frame, false when the
+     *                   caller keeps using it (shared or cached frames)
+     */
+    public FrameContext(Mat bgr, boolean isBgrOwned) {
+        this.imagePath = null;
+        this.bgr = bgr;
+        this.isBgrOwned = isBgrOwned;
+    }
+
+    public String getImagePath()
+    { return imagePath; }
+
+    public boolean isBgrOwned()
+    { return isBgrOwned; }
+
+    /**
+     * Adds a holder, such as an analysis running on another thread, which closes the 
+     * context when done with it. The buffers are only freed by the last holder's close, 
+     * so every holder must close exactly once.
+     */
+    public FrameContext retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    public Mat getBgr() throws Exception {
+        if (isClosed)
+        { throw new IllegalStateException("Frame context is closed"); }
+
+        if (bgr == null) {
+            // the context gets its own header on the shared decoded pixels, released on close
+            Mat image = FrameCache.SHARED.read(imagePath);
+            if (image.empty())
+            { throw new Exception("Failed to read input image: " + imagePath); }
+
+            bgr = image;
+        }
+        return bgr;
+    }
+
+    public Mat getHsv() throws Exception {
+        if (hsv == null) {
+            Mat source = getBgr();
+            long start = System.nanoTime();
+            Mat converted = acquire(source.rows(), source.cols(), CvType.CV_8UC3);
+            Imgproc.cvtColor(source, converted, Imgproc.COLOR_BGR2HSV);
+            hsv = converted;
+            PipelineMetrics.record("convert.hsv", start);
+        }
+        return hsv;
+    }
+
+    public Mat getGray() throws Exception {
+        if (gray == null) {
+            Mat source = getBgr();
+            long start = System.nanoTime();
+            Mat converted = acquire(source.rows(), source.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(source, converted, Imgproc.COLOR_BGR2GRAY);
+            gray = converted;
+            PipelineMetrics.record("convert.gray", start);
+        }
+        return gray;
+    }
+
+    /**
+     * Kits used to segment the frame, must be set before the first detection.
+     */
+    public void setClassifier(ColorClassifier classifier) {
+        if (labels != null)
+        { throw new IllegalStateException("Frame already segmented"); }
+
+        this.classifier = classifier;
+    }
+
+    public ColorClassifier getClassifier()
+    { return classifier; }
+
+    /**
+     * Detect on a level shrunk by this factor and refine in full-resolution windows,
+     * 1 (the default) detects at full resolution and 0 picks a factor from the frame width.
+     * Must be set before the first detection.
+     */
+    public void setPyramidFactor(int factor) {
+        if (players != null || isBallDetected)
+        { throw new IllegalStateException("Frame already analyzed"); }
+
+        this.pyramidFactor = factor;
+    }
+
+    // the factor as set, 0 for automatic, without decoding the frame to resolve it
+    int getPyramidSetting()
+    { return pyramidFactor; }
+
+    public int getPyramidFactor() throws Exception {
+        if (pyramidFactor == 0) pyramidFactor = PyramidUtils.autoFactor(getWidth());
+        return pyramidFactor;
+    }
+
+    public Mat getCoarseBgr() throws Exception {
+        if (coarseBgr == null) {
+            Mat source = getBgr();
+            int factor = getPyramidFactor();
+            long start = System.nanoTime();
+            Mat shrunk = acquire(source.rows() / factor, source.cols() / factor, CvType.CV_8UC3);
+            PyramidUtils.downscale(source, factor, shrunk);
+            coarseBgr = shrunk;
+            PipelineMetrics.record("convert.downscale", start);
+        }
+        return coarseBgr;
+    }
+
+    public Mat getCoarseGray() throws Exception {
+        if (coarseGray == null) {
+            Mat source = getCoarseBgr();
+            long start = System.nanoTime();
+            Mat converted = acquire(source.rows(), source.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(source, converted, Imgproc.COLOR_BGR2GRAY);
+            coarseGray = converted;
+            PipelineMetrics.record("convert.gray", start);
+        }
+        return coarseGray;
+    }
+
+    public Mat getCoarseLabels() throws Exception {
+        if (coarseLabels == null) {
+            Mat source = getCoarseBgr();
+            long start = System.nanoTime();
+            Mat segmented = acquire(source.rows(), source.cols(), CvType.CV_8UC1);
+            classifier.classify(source, segmented);
+            coarseLabels = segmented;
+            PipelineMetrics.record("segment.labels", start);
+        }
+        return coarseLabels;
+    }
+
+    /**
+     * Segments the frame at the level the detections run on.
+     */
+    public Mat segment() throws Exception 
+    { return getPyramidFactor() > 1 ? getCoarseLabels() : getLabels(); }
+
+    /**
+     * Blue/red/ball/background label of every pixel, shared by the player and ball detections.
+     */
+    public Mat getLabels() throws Exception {
+        if (labels == null) {
+            Mat source = getBgr();
+            long start = System.nanoTime();
+            Mat segmented = acquire(source.rows(), source.cols(), CvType.CV_8UC1);
+            classifier.classify(source, segmented);
+            labels = segmented;
+            PipelineMetrics.record("segment.labels", start);
+        }
+        return labels;
+    }
+
+    /**
+     * Players as detected in the frame, before any side reversal.
+     * Callers must not change the team of these instances.
+     */
+    public List<Player> getPlayers() throws Exception {
+        if (players == null) {
+            // segmented first, so that the stage only times the blob extraction
+            Mat segmented = segment();
+            long start = System.nanoTime();
+            players = getPyramidFactor() > 1
+                ? PyramidUtils.detectPlayers(getBgr(), segmented, getPyramidFactor(), classifier)
+                : ImageProcessingUtils.detectPlayersInLabels(segmented);
+            PipelineMetrics.record("players.blobs", start);
+        }
+
+        return players;
+    }
+
+    /**
+     * Players found by other means than a detection on this frame, such as a tracker
+     * following them from the previous frames. Must be set before the first detection.
+     */
+    public void setPlayers(List<Player> players) {
+        if (this.players != null)
+        { throw new IllegalStateException("Players already detected"); }
+
+        this.players = players;
+    }
+
+    public boolean hasPlayers()
+    { return players != null; }
+
+    public Point getBallCenter() throws Exception {
+        if (!isBallDetected) {
+            if (getPyramidFactor() > 1) {
+                Mat segmented = getCoarseLabels();
+                long start = System.nanoTime();
+                ballCenter = PyramidUtils.detectBall(getBgr(), segmented, getPyramidFactor(), classifier);
+                PipelineMetrics.record("ball.contours", start);
+
+                // too small to survive the coarse level, search the whole frame
+                if (ballCenter == null) ballCenter = detectBallInLabels();
+            } else {
+                ballCenter = detectBallInLabels();
+            }
+            isBallDetected = true;
+        }
+        return ballCenter;
+    }
+
+    private Point detectBallInLabels() throws Exception {
+        Mat segmented = getLabels();
+        long start = System.nanoTime();
+        Point ball = ImageProcessingUtils.detectBallInLabels(segmented);
+        PipelineMetrics.record("ball.contours", start);
+        return ball;
+    }
+
+    /**
+     * Ball found by other means than a detection on this frame, such as a tracker,
+     * null when it is known not to be in the frame. Must be set before the first detection.
+     */
+    public void setBallCenter(Point ballCenter) {
+        if (isBallDetected)
+        { throw new IllegalStateException("Ball already detected"); }
+
+        this.ballCenter = ballCenter;
+        this.isBallDetected = true;
+    }
+
+    public boolean hasBallCenter()
+    { return isBallDetected; }
+
+    public int getWidth() throws Exception
+    { return getBgr().width(); }
+
+    public int getHeight() throws Exception
+    { return getBgr().height(); }
+
+    private Mat acquire(int rows, int cols, int type) {
+        if (pool == null) pool = MatPool.forCurrentThread();
+        return pool.acquire(rows, cols, type);
+    }
+
+    /**
+     * Frees the native buffers of the frame right away instead of waiting for the GC,
+     * which matters when frames are processed back to back (video, batch).
+     * Detections stay available, the images do not.
+     */
+    @Override
+    public void close() {
+        if (references.decrementAndGet() > 0) return;
+
+        if (hsv != null) pool.release(hsv);
+        if (gray != null) pool.release(gray);
+        if (labels != null) pool.release(labels);
+        if (coarseBgr != null) pool.release(coarseBgr);
+        if (coarseGray != null) pool.release(coarseGray);
+        if (coarseLabels != null) pool.release(coarseLabels);
+        if (bgr != null && isBgrOwned) bgr.release();
+
+        hsv = null;
+        gray = null;
+        labels = null;
+        coarseBgr = null;
+        coarseGray = null;
+        coarseLabels = null;
+        bgr = null;
+        isClosed = true;
+    }
+}
@@ -0,0 +1,140 @@
+package mg.itu.algo;
+
+import mg.itu.algo.Algo.AnalysisResult;
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.entity.KitConfiguration;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.GoalCache;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One match being refereed: owns its scoreboard and runs the plays of that match.
+ * Sessions share nothing, so any number of matches can be analyzed concurrently,
+ * and plays of the same match may run concurrently as well.
+ */
+public class MatchSession {
+
+    public static class Score {
+        public final int blue;
+        public final int red;
+
+        public Score(int blue, int red) {
+            this.blue = blue;
+            this.red = red;
+        }
+
+        public Score withGoal(boolean isBlueTeam)
+        { return isBlueTeam ? new Score(blue + 1, red) : new Score(blue, red + 1); }
+
+        @Override
+        public String toString()
+        { return "Blue " + blue + " - Red " + red; }
+    }
+
+    private final String id;
+    private final ColorClassifier classifier;
+    private volatile GoalCache goalCache;
+    private volatile boolean isSpeculative;
+    private volatile ResultCache resultCache;
+
+    // both counters are swapped together so a reader never sees half a goal
+    private final AtomicReference<Score> score = new AtomicReference<>(new Score(0, 0));
+
+    public MatchSession(String id)
+    { this(id, KitConfiguration.DEFAULT); }
+
+    /**
+     * @param kit colours of the two teams and of the ball for the whole match
+     */
+    public MatchSession(String id, KitConfiguration kit) {
+        this.id = id;
+        this.classifier = ColorClassifier.forKit(kit);
+    }
+
+    public String getId()
+    { return id; }
+
+    public KitConfiguration getKit()
+    { return classifier.getKit(); }
+
+    public GoalCache getGoalCache()
+    { return goalCache; }
+
+    /**
+     * @param goalCache goals of the one fixed camera filming every play of the match, null
+     * (the default) when shots may come from different cameras and goals are detected each time
+     */
+    public void setGoalCache(GoalCache goalCache)
+    { this.goalCache = goalCache; }
+
+    public boolean isSpeculative()
+    { return isSpeculative; }
+
+    /**
+     * @param isSpeculative whether each play analyzes its shot frame next to its receive frame, 
+     * for a lower verdict latency at the cost of a second core (see {@link Algo})
+     */
+    public void setSpeculative(boolean isSpeculative)
+    { this.isSpeculative = isSpeculative; }
+
+    public ResultCache getResultCache()
+    { return resultCache; }
+
+    /**
+     * @param resultCache where plays already analyzed are looked up first, null to always analyze
+     */
+    public void setResultCache(ResultCache resultCache)
+    { this.resultCache = resultCache; }
+
+    public Score getScore()
+    { return score.get(); }
+
+    /**
+     * @return the score right after this goal
+     */
+    public Score recordGoal(boolean isBlueTeam)
+    { return score.updateAndGet(current -> current.withGoal(isBlueTeam)); }
+
+    public void resetScore()
+    { score.set(new Score(0, 0)); }
+
+    public AnalysisResult analyzePlay(String receiveImage, String shootImage,
+    boolean isReversedOrientation, FieldOrientation orientation, boolean isRendered)
+        throws Exception
+    {
+        try (FrameContext receiveFrame = new FrameContext(receiveImage);
+             FrameContext shootFrame = new FrameContext(shootImage))
+        { return analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered); }
+    }
+
+    /**
+     * Analyzes a play and credits the goal, if any, to the team of the receiving player.
+     * The annotated frames of a rendered play are owned by the caller.
+     */
+    public AnalysisResult analyzePlay(FrameContext receiveFrame, FrameContext shootFrame,
+    boolean isReversedOrientation, FieldOrientation orientation, boolean isRendered)
+        throws Exception
+    {
+        receiveFrame.setClassifier(classifier);
+        shootFrame.setClassifier(classifier);
+
+        ResultCache cache = resultCache;
+        GoalCache goalCache = this.goalCache;
+        AnalysisResult result = cache == null
+            ? Algo.analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered, goalCache, isSpeculative)
+            : cache.analyze(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered,
+                () -> Algo.analyzePlay(receiveFrame, shootFrame, isReversedOrientation, orientation, isRendered, goalCache, isSpeculative));
+
+        if (result.isGoal) {
+            result.score = recordGoal(result.decision.isAttackingTeamBlue());
+            result.message = result.message + " Score: " + result.score;
+        }
+
+        else {
+            result.score = getScore();
+        }
+
+        return result;
+    }
+}
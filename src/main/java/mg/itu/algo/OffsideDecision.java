@@ -0,0 +1,93 @@
+package mg.itu.algo;
+
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+
+import mg.itu.entity.Player;
+
+import java.util.List;
+
+/**
+ * Outcome of the offside rules on one frame, without any drawing: one consistent snapshot
+ * of an {@link OffsideEvaluator} pass, read by both the verdict and the drawing code.
+ * Players are per-analysis copies with the side reversal already applied.
+ */
+public class OffsideDecision {
+
+    public final List<Player> players;
+    public final Point ballCenter;
+    public final Size fieldSize;
+    public final Algo.FieldOrientation orientation;
+
+    public final Player playerWithBall;
+    public final Player goalkeeperBlue;
+    public final Player goalkeeperRed;
+    public final Player lastDefenderBlue;
+    public final Player lastDefenderRed;
+
+    // of the team defending against the player with the ball
+    public final Player lastDefender;
+    public final Player secondLastDefender;
+
+    public final List<Player> offsidePlayers;
+    private final double offsideLine;
+
+    /**
+     * Snapshot of the evaluator right after it evaluated {@code players}, in the same order.
+     */
+    public OffsideDecision(List<Player> players, Point ballCenter, Size fieldSize, Algo.FieldOrientation orientation,
+    OffsideEvaluator evaluator, List<Player> offsidePlayers) 
+    {
+        this.players = players;
+        this.ballCenter = ballCenter;
+        this.fieldSize = fieldSize;
+        this.orientation = orientation;
+        this.playerWithBall = playerAt(players, evaluator.getBallCarrier());
+        this.goalkeeperBlue = playerAt(players, evaluator.getGoalkeeper(true));
+        this.goalkeeperRed = playerAt(players, evaluator.getGoalkeeper(false));
+        this.lastDefenderBlue = playerAt(players, evaluator.getLastDefender(true));
+        this.lastDefenderRed = playerAt(players, evaluator.getLastDefender(false));
+        this.lastDefender = playerAt(players, evaluator.getLastDefender());
+        this.secondLastDefender = playerAt(players, evaluator.getSecondLastDefender());
+        this.offsidePlayers = offsidePlayers;
+        this.offsideLine = evaluator.getOffsideLine();
+    }
+
+    /**
+     * Decision restored as it was recorded, by the {@link ResultCache}.
+     */
+    OffsideDecision(List<Player> players, Point ballCenter, Size fieldSize, Algo.FieldOrientation orientation,
+    Player playerWithBall, Player goalkeeperBlue, Player goalkeeperRed, Player lastDefenderBlue, Player lastDefenderRed,
+    Player lastDefender, Player secondLastDefender, List<Player> offsidePlayers, double offsideLine)
+    {
+        this.players = players;
+        this.ballCenter = ballCenter;
+        this.fieldSize = fieldSize;
+        this.orientation = orientation;
+        this.playerWithBall = playerWithBall;
+        this.goalkeeperBlue = goalkeeperBlue;
+        this.goalkeeperRed = goalkeeperRed;
+        this.lastDefenderBlue = lastDefenderBlue;
+        this.lastDefenderRed = lastDefenderRed;
+        this.lastDefender = lastDefender;
+        this.secondLastDefender = secondLastDefender;
+        this.offsidePlayers = offsidePlayers;
+        this.offsideLine = offsideLine;
+    }
+
+    private static Player playerAt(List<Player> players, int index)
+    { return index == OffsideEvaluator.NONE ? null : players.get(index); }
+
+    public boolean isOffside() 
+    { return !offsidePlayers.isEmpty(); }
+
+    public boolean isAttackingTeamBlue() 
+    { return playerWithBall.isBlueTeam; }
+
+    /**
+     * Offside line along the attack axis (x for horizontal fields, y for vertical ones),
+     * or NaN when the defending team has no outfield player.
+     */
+    public double getOffsideLine()
+    { return offsideLine; }
+}
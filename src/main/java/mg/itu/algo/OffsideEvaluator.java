@@ -0,0 +1,207 @@
+package mg.itu.algo;
+
+import mg.itu.entity.PlayerSet;
+
+/**
+ * The offside rules over a {@link PlayerSet}, without allocating anything per call:
+ * players are referred to by their index in the set and the results stay in the evaluator
+ * until the next evaluation. Meant to be reused, one instance per thread, by what-if sweeps
+ * that evaluate thousands of variations of a play.
+ *
+ * Same rules as {@link mg.itu.utils.PlayerUtils}: blue defends the low end of the attack
+ * axis, each team's goalkeeper is its player closest to its own goal, the last defender is
+ * the deepest outfield player of the defending team, and every attacker beyond the last
+ * defender (the ball carrier included) is offside. Ties go to the first player in the set.
+ */
+public class OffsideEvaluator {
+
+    public static final int NONE = -1;
+
+    // deepest players kept per team: the goalkeeper may be among them, two outfield ones remain
+    private static final int DEEPEST_KEPT = 3;
+
+    private boolean isHorizontal;
+    private int ballCarrier = NONE;
+    private boolean isAttackingBlue;
+    private int blueGoalkeeper = NONE;
+    private int redGoalkeeper = NONE;
+    private int lastDefenderBlue = NONE;
+    private int lastDefenderRed = NONE;
+    private int secondLastDefenderBlue = NONE;
+    private int secondLastDefenderRed = NONE;
+    private double offsideLine = Double.NaN;
+    private int offsideCount;
+
+    // deepest players of each team, deepest first, as indices and how deep they are
+    private final int[] deepestBlue = new int[DEEPEST_KEPT];
+    private final int[] deepestRed = new int[DEEPEST_KEPT];
+    private final double[] deepestBlueDepth = new double[DEEPEST_KEPT];
+    private final double[] deepestRedDepth = new double[DEEPEST_KEPT];
+    private int deepestBlueCount;
+    private int deepestRedCount;
+
+    /**
+     * Evaluates the play and marks the offside players of the set. Goalkeepers, ball carrier 
+     * and the deepest players of both teams come from a single pass over the players; only 
+     * the attackers are visited again, to mark those beyond the offside line.
+     * @param ballX ball centre, the ball carrier is the player closest to it
+     */
+    public void evaluate(PlayerSet players, double fieldWidth, double fieldHeight,
+    Algo.FieldOrientation orientation, double ballX, double ballY)
+    {
+        isHorizontal = orientation == Algo.FieldOrientation.HORIZONTAL;
+
+        // own goals, at both ends of the attack axis, centred across it
+        double blueGoalX = isHorizontal ? 0 : fieldWidth / 2;
+        double blueGoalY = isHorizontal ? fieldHeight / 2 : 0;
+        double redGoalX = isHorizontal ? fieldWidth : fieldWidth / 2;
+        double redGoalY = isHorizontal ? fieldHeight / 2 : fieldHeight;
+
+        ballCarrier = NONE;
+        blueGoalkeeper = NONE;
+        redGoalkeeper = NONE;
+        deepestBlueCount = 0;
+        deepestRedCount = 0;
+
+        // squared distances order players the same way as distances
+        double ballDistance = Double.MAX_VALUE;
+        double blueGoalDistance = Double.MAX_VALUE;
+        double redGoalDistance = Double.MAX_VALUE;
+
+        for (int i = 0; i < players.size(); i++) {
+            players.setOffside(i, false);
+
+            double x = players.getX(i);
+            double y = players.getY(i);
+            double depth = isHorizontal ? x : y;
+
+            double distance = (x - ballX) * (x - ballX) + (y - ballY) * (y - ballY);
+            if (distance < ballDistance) {
+                ballDistance = distance;
+                ballCarrier = i;
+            }
+
+            if (players.isBlueTeam(i)) {
+                distance = (x - blueGoalX) * (x - blueGoalX) + (y - blueGoalY) * (y - blueGoalY);
+                if (distance < blueGoalDistance) {
+                    blueGoalDistance = distance;
+                    blueGoalkeeper = i;
+                }
+
+                // blue defends the low end, its deepest players have the lowest coordinates
+                deepestBlueCount = keepDeepest(deepestBlue, deepestBlueDepth, deepestBlueCount, i, -depth);
+            }
+
+            else {
+                distance = (x - redGoalX) * (x - redGoalX) + (y - redGoalY) * (y - redGoalY);
+                if (distance < redGoalDistance) {
+                    redGoalDistance = distance;
+                    redGoalkeeper = i;
+                }
+
+                // as in PlayerUtils, a red player at coordinate 0 never counts as the deepest
+                if (depth > Double.MIN_VALUE) {
+                    deepestRedCount = keepDeepest(deepestRed, deepestRedDepth, deepestRedCount, i, depth);
+                }
+            }
+        }
+
+        lastDefenderBlue = getOutfield(deepestBlue, deepestBlueCount, blueGoalkeeper, 0);
+        secondLastDefenderBlue = getOutfield(deepestBlue, deepestBlueCount, blueGoalkeeper, 1);
+        lastDefenderRed = getOutfield(deepestRed, deepestRedCount, redGoalkeeper, 0);
+        secondLastDefenderRed = getOutfield(deepestRed, deepestRedCount, redGoalkeeper, 1);
+
+        offsideLine = Double.NaN;
+        offsideCount = 0;
+        if (ballCarrier == NONE) return;
+
+        isAttackingBlue = players.isBlueTeam(ballCarrier);
+        int lastDefender = getLastDefender();
+        if (lastDefender == NONE) return;
+
+        offsideLine = players.getDepth(lastDefender, isHorizontal);
+        for (int i = 0; i < players.size(); i++) {
+            if (players.isBlueTeam(i) != isAttackingBlue) continue;
+
+            double depth = players.getDepth(i, isHorizontal);
+            if (isAttackingBlue ? depth > offsideLine : depth < offsideLine) {
+                players.setOffside(i, true);
+                offsideCount++;
+            }
+        }
+    }
+
+    /**
+     * Inserts the player among the deepest ones (the higher the deeper), after those 
+     * exactly as deep so that ties go to the first player.
+     * @return the new number of players kept
+     */
+    private static int keepDeepest(int[] deepest, double[] depths, int count, int player, double depth) {
+        int position = count;
+        while (position > 0 && depth > depths[position - 1]) position--;
+        if (position == DEEPEST_KEPT) return count;
+
+        int last = Math.min(count, DEEPEST_KEPT - 1);
+        for (int k = last; k > position; k--) {
+            deepest[k] = deepest[k - 1];
+            depths[k] = depths[k - 1];
+        }
+        deepest[position] = player;
+        depths[position] = depth;
+        return Math.min(count + 1, DEEPEST_KEPT);
+    }
+
+    // rank-th deepest player of the team once its goalkeeper is left out
+    private static int getOutfield(int[] deepest, int count, int goalkeeper, int rank) {
+        for (int k = 0; k < count; k++) {
+            if (deepest[k] == goalkeeper) continue;
+            if (rank-- == 0) return deepest[k];
+        }
+        return NONE;
+    }
+
+    public int getBallCarrier()
+    { return ballCarrier; }
+
+    public int getGoalkeeper(boolean isBlueTeam)
+    { return isBlueTeam ? blueGoalkeeper : redGoalkeeper; }
+
+    /**
+     * Deepest outfield player of the team, NONE when it has none.
+     */
+    public int getLastDefender(boolean isBlueTeam)
+    { return isBlueTeam ? lastDefenderBlue : lastDefenderRed; }
+
+    /**
+     * Last defender of the team defending against the ball carrier.
+     */
+    public int getLastDefender()
+    { return ballCarrier == NONE ? NONE : getLastDefender(!isAttackingBlue); }
+
+    /**
+     * Next deepest outfield player of the team after its last defender, NONE when it has none.
+     */
+    public int getSecondLastDefender(boolean isBlueTeam)
+    { return isBlueTeam ? secondLastDefenderBlue : secondLastDefenderRed; }
+
+    public int getSecondLastDefender()
+    { return ballCarrier == NONE ? NONE : getSecondLastDefender(!isAttackingBlue); }
+
+    /**
+     * Offside line along the attack axis, NaN without a ball carrier or a last defender.
+     */
+    public double getOffsideLine()
+    { return offsideLine; }
+
+    /**
+     * Team of the ball carrier, meaningless when there is no ball carrier.
+     */
+    public boolean isAttackingBlue()
+    { return isAttackingBlue; }
+
+    public int getOffsideCount()
+    { return offsideCount; }
+
+    public boolean isOffside()
+    { return offsideCount > 0; }
+}
@@ -0,0 +1,352 @@
+package mg.itu.algo;
+
+import mg.itu.entity.PlayerSet;
+
+/**
+ * The offside rules kept current over a stream of position updates, for live feeds where
+ * every player moves a few pixels per frame. Same rules and tie-breaks as
+ * {@link OffsideEvaluator}, which recomputes everything on each call.
+ *
+ * Each team is kept sorted by progress along its attack direction (blue towards the high end
+ * of the axis, red towards the low end), so its deepest defenders are at the front of its order
+ * and its players beyond the other team's last defender form the end of it. A moved player is
+ * shifted past the teammates it overtook, the goalkeeper is only searched again when it moves
+ * away from its goal, and the offside boundary walks from where it was: an update costs the
+ * ranks a player gained or lost, near-constant when players drift.
+ */
+public class OffsideTracker {
+
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private final boolean isHorizontal;
+    private final PlayerSet players = new PlayerSet(DEFAULT_CAPACITY);
+
+    // own goals, at both ends of the attack axis, centred across it
+    private final double blueGoalX;
+    private final double blueGoalY;
+    private final double redGoalX;
+    private final double redGoalY;
+
+    private final Team blue = new Team();
+    private final Team red = new Team();
+    private int[] rank = new int[DEFAULT_CAPACITY];
+
+    private double ballX = Double.NaN;
+    private double ballY = Double.NaN;
+    private int ballCarrier = OffsideEvaluator.NONE;
+    private boolean isBallCarrierStale;
+
+    /**
+     * Players of one team sorted by progress, ties by index, with the team's goalkeeper
+     * and the first rank beyond the other team's last defender.
+     */
+    private static class Team {
+        int count;
+        int[] order = new int[DEFAULT_CAPACITY];
+        double[] progress = new double[DEFAULT_CAPACITY];
+
+        int goalkeeper = OffsideEvaluator.NONE;
+        double goalkeeperDistance = Double.MAX_VALUE;
+        boolean isGoalkeeperStale;
+
+        int offsideStart;
+    }
+
+    public OffsideTracker(double fieldWidth, double fieldHeight, Algo.FieldOrientation orientation) {
+        isHorizontal = orientation == Algo.FieldOrientation.HORIZONTAL;
+        blueGoalX = isHorizontal ? 0 : fieldWidth / 2;
+        blueGoalY = isHorizontal ? fieldHeight / 2 : 0;
+        redGoalX = isHorizontal ? fieldWidth : fieldWidth / 2;
+        redGoalY = isHorizontal ? fieldHeight / 2 : fieldHeight;
+    }
+
+    /**
+     * Starts tracking a player.
+     * @return its index, the one to give to {@link #setPosition(int, double, double)}
+     */
+    public int add(double x, double y, boolean isBlueTeam) {
+        int player = players.add(x, y, isBlueTeam);
+        if (rank.length == player) {
+            int[] grown = new int[rank.length * 2];
+            System.arraycopy(rank, 0, grown, 0, player);
+            rank = grown;
+        }
+
+        Team team = getTeam(player);
+        if (team.count == team.order.length) {
+            int[] order = new int[team.count * 2];
+            double[] progress = new double[team.count * 2];
+            System.arraycopy(team.order, 0, order, 0, team.count);
+            System.arraycopy(team.progress, 0, progress, 0, team.count);
+            team.order = order;
+            team.progress = progress;
+        }
+
+        // a new player enters last and moves up to its place, as any update does
+        team.order[team.count] = player;
+        team.progress[team.count] = getProgress(player);
+        rank[player] = team.count++;
+        shift(team, player);
+
+        updateGoalkeeper(team, player);
+        isBallCarrierStale = true;
+        return player;
+    }
+
+    public void clear() {
+        players.clear();
+        for (Team team : new Team[] { blue, red }) {
+            team.count = 0;
+            team.goalkeeper = OffsideEvaluator.NONE;
+            team.goalkeeperDistance = Double.MAX_VALUE;
+            team.isGoalkeeperStale = false;
+            team.offsideStart = 0;
+        }
+        ballCarrier = OffsideEvaluator.NONE;
+        isBallCarrierStale = false;
+    }
+
+    /**
+     * Moves a tracked player.
+     */
+    public void setPosition(int player, double x, double y) {
+        players.setPosition(player, x, y);
+
+        Team team = getTeam(player);
+        team.progress[rank[player]] = getProgress(player);
+        shift(team, player);
+
+        updateGoalkeeper(team, player);
+        isBallCarrierStale = true;
+    }
+
+    public void setBall(double x, double y) {
+        ballX = x;
+        ballY = y;
+        isBallCarrierStale = true;
+    }
+
+    // moves the player through its team's order until progress, then index, are sorted again
+    private void shift(Team team, int player) {
+        int position = rank[player];
+        double value = team.progress[position];
+
+        while (position > 0 && isBefore(value, player, team.progress[position - 1], team.order[position - 1])) {
+            move(team, position - 1, position);
+            position--;
+        }
+
+        while (position < team.count - 1 && isBefore(team.progress[position + 1], team.order[position + 1], value, player)) {
+            move(team, position + 1, position);
+            position++;
+        }
+
+        team.order[position] = player;
+        team.progress[position] = value;
+        rank[player] = position;
+    }
+
+    private void move(Team team, int from, int to) {
+        team.order[to] = team.order[from];
+        team.progress[to] = team.progress[from];
+        rank[team.order[to]] = to;
+    }
+
+    private static boolean isBefore(double progress, int player, double otherProgress, int other)
+    { return progress < otherProgress || progress == otherProgress && player < other; }
+
+    /**
+     * Keeps the goalkeeper after a player of the team moved: a closer player takes its place,
+     * a goalkeeper moving away leaves the place open until next asked for.
+     */
+    private void updateGoalkeeper(Team team, int player) {
+        if (team.isGoalkeeperStale) return;
+
+        double distance = getGoalDistance(player);
+        if (player == team.goalkeeper) {
+            if (distance <= team.goalkeeperDistance) team.goalkeeperDistance = distance;
+            else team.isGoalkeeperStale = true;
+        }
+
+        else if (distance < team.goalkeeperDistance || distance == team.goalkeeperDistance && player < team.goalkeeper) {
+            team.goalkeeper = player;
+            team.goalkeeperDistance = distance;
+        }
+    }
+
+    /**
+     * Searches the goalkeeper again, from the deepest player on: nobody further along the axis
+     * than the closest distance found so far can be closer to the goal.
+     */
+    private void findGoalkeeper(Team team) {
+        double goalProgress = team == blue ? 0 : -(isHorizontal ? redGoalX : redGoalY);
+
+        team.goalkeeper = OffsideEvaluator.NONE;
+        team.goalkeeperDistance = Double.MAX_VALUE;
+        for (int k = 0; k < team.count; k++) {
+            double gap = team.progress[k] - goalProgress;
+            if (gap > 0 && gap * gap > team.goalkeeperDistance) break;
+
+            int player = team.order[k];
+            double distance = getGoalDistance(player);
+            if (distance < team.goalkeeperDistance || distance == team.goalkeeperDistance && player < team.goalkeeper) {
+                team.goalkeeper = player;
+                team.goalkeeperDistance = distance;
+            }
+        }
+        team.isGoalkeeperStale = false;
+    }
+
+    private double getGoalDistance(int player) {
+        double x = players.getX(player);
+        double y = players.getY(player);
+        double goalX = players.isBlueTeam(player) ? blueGoalX : redGoalX;
+        double goalY = players.isBlueTeam(player) ? blueGoalY : redGoalY;
+        return (x - goalX) * (x - goalX) + (y - goalY) * (y - goalY);
+    }
+
+    private double getProgress(int player) {
+        double depth = players.getDepth(player, isHorizontal);
+        return players.isBlueTeam(player) ? depth : -depth;
+    }
+
+    private Team getTeam(int player)
+    { return players.isBlueTeam(player) ? blue : red; }
+
+    private Team getTeam(boolean isBlueTeam)
+    { return isBlueTeam ? blue : red; }
+
+    // rank-th deepest player of the team once its goalkeeper is left out
+    private int getOutfield(Team team, int rank) {
+        int goalkeeper = getGoalkeeper(team == blue);
+        for (int k = 0; k < team.count; k++) {
+            int player = team.order[k];
+            if (player == goalkeeper) continue;
+
+            // as in PlayerUtils, a red player at coordinate 0 never counts as a defender
+            if (team == red && -team.progress[k] <= Double.MIN_VALUE) return OffsideEvaluator.NONE;
+            if (rank-- == 0) return player;
+        }
+        return OffsideEvaluator.NONE;
+    }
+
+    /**
+     * Walks the team's offside boundary from where it was to the other team's last defender.
+     */
+    private int getOffsideStart(Team team) {
+        int lastDefender = getLastDefender(team != blue);
+        if (lastDefender == OffsideEvaluator.NONE) return team.count;
+
+        double line = team == blue
+            ? players.getDepth(lastDefender, isHorizontal)
+            : -players.getDepth(lastDefender, isHorizontal);
+
+        int start = Math.min(team.offsideStart, team.count);
+        while (start > 0 && team.progress[start - 1] > line) start--;
+        while (start < team.count && team.progress[start] <= line) start++;
+
+        team.offsideStart = start;
+        return start;
+    }
+
+    public int size()
+    { return players.size(); }
+
+    public double getX(int player)
+    { return players.getX(player); }
+
+    public double getY(int player)
+    { return players.getY(player); }
+
+    public boolean isBlueTeam(int player)
+    { return players.isBlueTeam(player); }
+
+    public int getGoalkeeper(boolean isBlueTeam) {
+        Team team = getTeam(isBlueTeam);
+        if (team.isGoalkeeperStale) findGoalkeeper(team);
+        return team.goalkeeper;
+    }
+
+    /**
+     * Deepest outfield player of the team, NONE when it has none.
+     */
+    public int getLastDefender(boolean isBlueTeam)
+    { return getOutfield(getTeam(isBlueTeam), 0); }
+
+    public int getSecondLastDefender(boolean isBlueTeam)
+    { return getOutfield(getTeam(isBlueTeam), 1); }
+
+    /**
+     * Offside line the attacking team plays against, NaN when the other team has no last defender.
+     */
+    public double getOffsideLine(boolean isAttackingBlue) {
+        int lastDefender = getLastDefender(!isAttackingBlue);
+        return lastDefender == OffsideEvaluator.NONE ? Double.NaN : players.getDepth(lastDefender, isHorizontal);
+    }
+
+    /**
+     * Number of players of the attacking team beyond the offside line.
+     */
+    public int getOffsideCount(boolean isAttackingBlue) {
+        Team team = getTeam(isAttackingBlue);
+        return team.count - getOffsideStart(team);
+    }
+
+    /**
+     * Writes the players of the attacking team beyond the offside line, least advanced first.
+     * @return how many were written
+     */
+    public int getOffsidePlayers(boolean isAttackingBlue, int[] offsidePlayers) {
+        Team team = getTeam(isAttackingBlue);
+        int start = getOffsideStart(team);
+        System.arraycopy(team.order, start, offsidePlayers, 0, team.count - start);
+        return team.count - start;
+    }
+
+    /**
+     * Whether the player is beyond the last defender of the other team, offside if its team attacks.
+     */
+    public boolean isBeyondOffsideLine(int player)
+    { return rank[player] >= getOffsideStart(getTeam(player)); }
+
+    /**
+     * Player closest to the ball, NONE before the ball is set or without players.
+     */
+    public int getBallCarrier() {
+        if (!isBallCarrierStale) return ballCarrier;
+
+        // the ball moves every frame anyway, the carrier is found again by a scan when asked for
+        ballCarrier = OffsideEvaluator.NONE;
+        double ballDistance = Double.MAX_VALUE;
+        for (int i = 0; i < players.size(); i++) {
+            double x = players.getX(i);
+            double y = players.getY(i);
+            double distance = (x - ballX) * (x - ballX) + (y - ballY) * (y - ballY);
+            if (distance < ballDistance) {
+                ballDistance = distance;
+                ballCarrier = i;
+            }
+        }
+        isBallCarrierStale = false;
+        return ballCarrier;
+    }
+
+    /**
+     * Whether the player is offside in the current play: on the ball carrier's team and beyond the line.
+     */
+    public boolean isOffside(int player) {
+        int carrier = getBallCarrier();
+        return carrier != OffsideEvaluator.NONE
+            && players.isBlueTeam(player) == players.isBlueTeam(carrier)
+            && isBeyondOffsideLine(player);
+    }
+
+    /**
+     * Number of offside players in the current play.
+     */
+    public int getOffsideCount() {
+        int carrier = getBallCarrier();
+        if (carrier == OffsideEvaluator.NONE) return 0;
+        return getOffsideCount(players.isBlueTeam(carrier));
+    }
+}
@@ -0,0 +1,196 @@
+package mg.itu.algo;
+
+import mg.itu.entity.Player;
+import mg.itu.entity.PlayerSet;
+
+import java.util.List;
+
+/**
+ * Offside status of every pass option of a frame: for any player taken as the passer, its
+ * potential receivers are the teammates strictly ahead of it along the attack axis (those the
+ * attack arrows point to), and a receiver is offside when it is beyond the last defender of
+ * the other team, as in {@link OffsideEvaluator}.
+ *
+ * Each team is sorted once by how far it has gone in its attack direction; a passer's receivers
+ * are then the end of its team's order after the passer, and its offside receivers the end of
+ * the order beyond the offside line, both found by binary search. Reused from frame to frame,
+ * the map stops allocating once it has seen the largest frame.
+ */
+public class PassOffsideMap {
+
+    private int count;
+
+    // team order: players of the team sorted by progress, and the rank of each player in it
+    private int[] blueOrder = new int[0];
+    private int[] redOrder = new int[0];
+    private double[] blueProgress = new double[0];
+    private double[] redProgress = new double[0];
+    private int blueCount;
+    private int redCount;
+    private int[] rank = new int[0];
+    private boolean[] isBlueTeam = new boolean[0];
+
+    // first rank of each team beyond the other team's last defender, the team size when none is
+    private int blueOffsideStart;
+    private int redOffsideStart;
+
+    /**
+     * Builds the map from the players and the last defenders of both teams, such as those of an
+     * {@link OffsideEvaluator} run on the same set.
+     * @param lastDefenderBlue index of the blue last defender, {@link OffsideEvaluator#NONE} if none
+     */
+    public void build(PlayerSet players, Algo.FieldOrientation orientation, int lastDefenderBlue, int lastDefenderRed) {
+        boolean isHorizontal = orientation == Algo.FieldOrientation.HORIZONTAL;
+        count = players.size();
+        ensureCapacity(count);
+
+        blueCount = 0;
+        redCount = 0;
+        for (int i = 0; i < count; i++) {
+            isBlueTeam[i] = players.isBlueTeam(i);
+
+            // blue attacks towards the high end of the axis, red towards the low end
+            double depth = players.getDepth(i, isHorizontal);
+            if (isBlueTeam[i]) {
+                blueOrder[blueCount] = i;
+                blueProgress[blueCount++] = depth;
+            }
+
+            else {
+                redOrder[redCount] = i;
+                redProgress[redCount++] = -depth;
+            }
+        }
+
+        sort(blueOrder, blueProgress, blueCount);
+        sort(redOrder, redProgress, redCount);
+        for (int k = 0; k < blueCount; k++) rank[blueOrder[k]] = k;
+        for (int k = 0; k < redCount; k++) rank[redOrder[k]] = k;
+
+        // an attacker is offside strictly beyond the line, so past every equal progress
+        blueOffsideStart = lastDefenderRed == OffsideEvaluator.NONE
+            ? blueCount
+            : upperBound(blueProgress, blueCount, players.getDepth(lastDefenderRed, isHorizontal));
+        redOffsideStart = lastDefenderBlue == OffsideEvaluator.NONE
+            ? redCount
+            : upperBound(redProgress, redCount, -players.getDepth(lastDefenderBlue, isHorizontal));
+    }
+
+    /**
+     * Map of the players of a decision, indices being positions in {@code decision.players}.
+     */
+    public static PassOffsideMap of(OffsideDecision decision) {
+        PlayerSet players = new PlayerSet(decision.players.size());
+        players.setAll(decision.players, false);
+
+        PassOffsideMap map = new PassOffsideMap();
+        map.build(players, decision.orientation,
+            indexOf(decision.players, decision.lastDefenderBlue), indexOf(decision.players, decision.lastDefenderRed));
+        return map;
+    }
+
+    private static int indexOf(List<Player> players, Player player) {
+        for (int i = 0; i < players.size(); i++) {
+            if (players.get(i) == player) return i;
+        }
+        return OffsideEvaluator.NONE;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (rank.length >= capacity) return;
+
+        blueOrder = new int[capacity];
+        redOrder = new int[capacity];
+        blueProgress = new double[capacity];
+        redProgress = new double[capacity];
+        rank = new int[capacity];
+        isBlueTeam = new boolean[capacity];
+    }
+
+    /**
+     * Sorts a team by progress, keeping the index order among equal progress. A team holds
+     * a handful of players, where insertion sort is the fastest and allocates nothing.
+     */
+    private static void sort(int[] order, double[] progress, int size) {
+        for (int k = 1; k < size; k++) {
+            int player = order[k];
+            double value = progress[k];
+
+            int position = k;
+            while (position > 0 && progress[position - 1] > value) {
+                order[position] = order[position - 1];
+                progress[position] = progress[position - 1];
+                position--;
+            }
+
+            order[position] = player;
+            progress[position] = value;
+        }
+    }
+
+    // first rank whose progress is strictly greater than the value
+    private static int upperBound(double[] progress, int size, double value) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (progress[middle] <= value) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    public int size()
+    { return count; }
+
+    /**
+     * Number of potential receivers of the passer: teammates strictly ahead of it.
+     */
+    public int getReceiverCount(int passer)
+    { return getTeamSize(passer) - getFirstReceiverRank(passer); }
+
+    /**
+     * Number of potential receivers of the passer that would be offside.
+     */
+    public int getOffsideReceiverCount(int passer)
+    { return getTeamSize(passer) - Math.max(getFirstReceiverRank(passer), getOffsideStart(passer)); }
+
+    /**
+     * Writes the potential receivers of the passer, least advanced first.
+     * @return how many were written
+     */
+    public int getReceivers(int passer, int[] receivers) {
+        int[] order = isBlueTeam[passer] ? blueOrder : redOrder;
+        int first = getFirstReceiverRank(passer);
+        int size = getTeamSize(passer) - first;
+        System.arraycopy(order, first, receivers, 0, size);
+        return size;
+    }
+
+    public boolean isReceiver(int passer, int receiver)
+    { return isBlueTeam[passer] == isBlueTeam[receiver] && rank[receiver] >= getFirstReceiverRank(passer); }
+
+    /**
+     * Whether a pass from the passer to the receiver would be offside; false when the receiver
+     * is not a potential receiver of the passer.
+     */
+    public boolean isOffside(int passer, int receiver)
+    { return isReceiver(passer, receiver) && rank[receiver] >= getOffsideStart(passer); }
+
+    /**
+     * Whether the player would be offside if it received the ball from a teammate behind it.
+     */
+    public boolean isBeyondOffsideLine(int player)
+    { return rank[player] >= getOffsideStart(player); }
+
+    private int getTeamSize(int player)
+    { return isBlueTeam[player] ? blueCount : redCount; }
+
+    private int getOffsideStart(int player)
+    { return isBlueTeam[player] ? blueOffsideStart : redOffsideStart; }
+
+    // the passer's teammates level with it are not ahead of it: receivers start after them
+    private int getFirstReceiverRank(int passer) {
+        double[] progress = isBlueTeam[passer] ? blueProgress : redProgress;
+        return upperBound(progress, getTeamSize(passer), progress[rank[passer]]);
+    }
+}
@@ -0,0 +1,215 @@
+package mg.itu.algo;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import mg.itu.utils.FrameCache;
+import mg.itu.utils.MatPool;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency of every pipeline stage over the whole process, next to the native memory held
+ * by the frames. Each stage timed by a {@link StageTimings} of an analysis, plus the finer
+ * stages inside the detections (colour conversion, segmentation, line detection, drawing),
+ * lands in a {@link LatencyHistogram}, so percentiles come without keeping any sample.
+ *
+ * Read them through {@link #snapshot()}, a periodic dump ({@link #startReporting}), or
+ * Java Flight Recorder: every stage is also a "mg.itu.Stage" event and the native bytes a
+ * periodic "mg.itu.NativeMemory" event, to line them up with GC and CPU samples.
+ */
+public class PipelineMetrics {
+
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> NATIVE_BYTES = new ConcurrentHashMap<>();
+    private static final long START_NANOS = System.nanoTime();
+
+    private static ScheduledExecutorService reporter;
+
+    static {
+        registerNativeBytes("frameCache", FrameCache.SHARED::getBytes);
+        registerNativeBytes("matPool", MatPool::getLiveBytes);
+        registerNativeBytes("matPoolIdle", MatPool::getIdleBytes);
+
+        FlightRecorder.addPeriodicEvent(NativeMemoryEvent.class, () -> {
+            NativeMemoryEvent event = new NativeMemoryEvent();
+            event.frameCacheBytes = FrameCache.SHARED.getBytes();
+            event.matPoolBytes = MatPool.getLiveBytes();
+            event.matPoolIdleBytes = MatPool.getIdleBytes();
+            event.commit();
+        });
+    }
+
+    @Name("mg.itu.Stage")
+    @Label("Pipeline Stage")
+    @Category("Offside Detection")
+    @Description("One stage of a frame analysis")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        // timed by the caller, the event itself is committed once the stage is over
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("mg.itu.NativeMemory")
+    @Label("Frame Native Memory")
+    @Category("Offside Detection")
+    @Description("Native bytes of the cached frames and of the working Mats")
+    @Period("1 s")
+    @StackTrace(false)
+    static class NativeMemoryEvent extends Event {
+        @Label("Frame Cache")
+        @DataAmount
+        long frameCacheBytes;
+
+        @Label("Mat Pools")
+        @DataAmount
+        long matPoolBytes;
+
+        @Label("Idle In Mat Pools")
+        @DataAmount
+        long matPoolIdleBytes;
+    }
+
+    /**
+     * Records the stage as lasting from the start time until now.
+     */
+    public static void record(String stage, long startNanos)
+    { recordDuration(stage, System.nanoTime() - startNanos); }
+
+    public static void recordDuration(String stage, long nanos) {
+        LatencyHistogram histogram = HISTOGRAMS.get(stage);
+        if (histogram == null) histogram = HISTOGRAMS.computeIfAbsent(stage, key -> new LatencyHistogram());
+        histogram.record(nanos);
+
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reports the native bytes held by another component (a result cache, a server's
+     * frames) next to the frame cache and the Mat pools, under the given name.
+     */
+    public static void registerNativeBytes(String name, LongSupplier bytes)
+    { NATIVE_BYTES.put(name, bytes); }
+
+    public static class StageStats {
+        public final long count;
+        public final double meanMs;
+        public final double p50Ms;
+        public final double p90Ms;
+        public final double p99Ms;
+        public final double p999Ms;
+        public final double maxMs;
+        // since the process started
+        public final double perSecond;
+
+        StageStats(LatencyHistogram.Snapshot histogram, double elapsedSeconds) {
+            this.count = histogram.count;
+            this.meanMs = histogram.getMeanNanos() / 1e6;
+            this.p50Ms = histogram.getPercentileNanos(50) / 1e6;
+            this.p90Ms = histogram.getPercentileNanos(90) / 1e6;
+            this.p99Ms = histogram.getPercentileNanos(99) / 1e6;
+            this.p999Ms = histogram.getPercentileNanos(99.9) / 1e6;
+            this.maxMs = histogram.maxNanos / 1e6;
+            this.perSecond = count / Math.max(elapsedSeconds, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d %.1f/s mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                count, perSecond, meanMs, p50Ms, p90Ms, p99Ms, p999Ms, maxMs);
+        }
+    }
+
+    public static class Snapshot {
+        public final double uptimeSeconds;
+        // by stage name, sorted
+        public final Map<String, StageStats> stages;
+        public final Map<String, Long> nativeBytes;
+
+        Snapshot(double uptimeSeconds, Map<String, StageStats> stages, Map<String, Long> nativeBytes) {
+            this.uptimeSeconds = uptimeSeconds;
+            this.stages = Collections.unmodifiableMap(stages);
+            this.nativeBytes = Collections.unmodifiableMap(nativeBytes);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("Pipeline metrics after %.0f s, native", uptimeSeconds));
+            for (Map.Entry<String, Long> entry : nativeBytes.entrySet())
+            { builder.append(String.format(" %s=%.1f MB", entry.getKey(), entry.getValue() / 1048576.0)); }
+
+            for (Map.Entry<String, StageStats> entry : stages.entrySet())
+            { builder.append(String.format("%n  %-20s %s", entry.getKey(), entry.getValue())); }
+            return builder.toString();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        double uptimeSeconds = (System.nanoTime() - START_NANOS) / 1e9;
+
+        Map<String, StageStats> stages = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet())
+        { stages.put(entry.getKey(), new StageStats(entry.getValue().snapshot(), uptimeSeconds)); }
+
+        Map<String, Long> nativeBytes = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(NATIVE_BYTES).entrySet())
+        { nativeBytes.put(entry.getKey(), entry.getValue().getAsLong()); }
+
+        return new Snapshot(uptimeSeconds, stages, nativeBytes);
+    }
+
+    /**
+     * Forgets every recorded duration, such as after a warm-up.
+     */
+    public static void reset()
+    { HISTOGRAMS.clear(); }
+
+    /**
+     * Prints a snapshot every interval from a daemon thread, until {@link #stopReporting}.
+     */
+    public static synchronized void startReporting(long intervalSeconds, PrintStream output) {
+        if (intervalSeconds < 1) throw new IllegalArgumentException("Interval must be positive: " + intervalSeconds);
+
+        stopReporting();
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> output.println(snapshot()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopReporting() {
+        if (reporter == null) return;
+
+        reporter.shutdownNow();
+        reporter = null;
+    }
+}
@@ -0,0 +1,508 @@
+package mg.itu.algo;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import mg.itu.algo.Algo.AnalysisResult;
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.entity.Player;
+import mg.itu.utils.GoalCageUtils.Goal;
+import mg.itu.utils.GoalCageUtils.Line;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Verdicts of plays already analyzed, so that analyzing the same pair again (the operator
+ * pressing "Analyze Play" twice, a batch audited again) returns at once. Plays are keyed by
+ * the SHA-256 of both image files and every parameter that changes the verdict: side,
+ * orientation, kits and pyramid factor. A hit returns the recorded verdict, players, goals
+ * and annotated frames; scoring is left to the caller, so a session still credits the goal.
+ *
+ * Results live in memory within a byte budget, least recently used first out, and optionally
+ * in a directory where they survive restarts, within a budget of their own.
+ *
+ * Safe to share between threads.
+ */
+public class ResultCache {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final long DEFAULT_MAX_BYTES = 128L << 20;
+    public static final long DEFAULT_MAX_DISK_BYTES = 1L << 30;
+
+    // bumped whenever the file layout or the analysis changes, older files are ignored
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".result";
+    // verdict, players and goals, next to the annotated frames
+    private static final long ENTRY_OVERHEAD = 4096;
+    // digests of the files hashed lately, so that a hit does not read the images again
+    private static final int MAX_DIGESTS = 256;
+
+    /**
+     * The analysis to run on a miss.
+     */
+    public interface Analysis {
+        AnalysisResult run() throws Exception;
+    }
+
+    private static class Entry {
+        final AnalysisResult result;
+        final boolean isRendered;
+        final long bytes;
+
+        Entry(AnalysisResult result, boolean isRendered) {
+            this.result = result;
+            this.isRendered = isRendered;
+            this.bytes = ENTRY_OVERHEAD + getBytes(result.receiveImage) + getBytes(result.shotImage);
+        }
+    }
+
+    // file content digest, valid while the file keeps its modification time and length
+    private static class Digest {
+        final long lastModified;
+        final long length;
+        final byte[] value;
+
+        Digest(long lastModified, long length, byte[] value) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.value = value;
+        }
+    }
+
+    private final long maxBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    // access-ordered so the first entry is the least recently used result
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Digest> digests = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hitCount;
+    private long diskHitCount;
+    private long missCount;
+
+    /**
+     * Memory-only cache.
+     */
+    public ResultCache()
+    { this(DEFAULT_MAX_BYTES, null, 0); }
+
+    /**
+     * @param directory where results are also written and looked up, null for memory only
+     */
+    public ResultCache(long maxBytes, File directory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null) directory.mkdirs();
+    }
+
+    /**
+     * Result of the play, recorded or freshly analyzed. Plays whose frames were not read
+     * from files are always analyzed. As with {@link Algo#analyzePlay}, the annotated frames
+     * of a rendered result are the caller's to release.
+     */
+    public AnalysisResult analyze(FrameContext receiveFrame, FrameContext shootFrame, boolean isReversedOrientation,
+    FieldOrientation orientation, boolean isRendered, Analysis analysis)
+        throws Exception
+    {
+        if (receiveFrame.getImagePath() == null || shootFrame.getImagePath() == null) return analysis.run();
+
+        long start = System.nanoTime();
+        String key = getKey(receiveFrame, shootFrame, isReversedOrientation, orientation);
+
+        AnalysisResult cached = get(key, isRendered);
+        if (cached != null) {
+            cached.timings.record("result.cache", start);
+            return cached;
+        }
+
+        AnalysisResult result = analysis.run();
+        put(key, result, isRendered);
+        return result;
+    }
+
+    private String getKey(FrameContext receiveFrame, FrameContext shootFrame, boolean isReversedOrientation,
+    FieldOrientation orientation)
+        throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(getDigest(receiveFrame.getImagePath()));
+        digest.update(getDigest(shootFrame.getImagePath()));
+
+        String parameters = FORMAT_VERSION + "|" + isReversedOrientation + "|" + orientation
+            + "|" + receiveFrame.getPyramidSetting() + "|" + shootFrame.getPyramidSetting()
+            + "|" + toKey(receiveFrame) + "|" + toKey(shootFrame);
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    private static String toKey(FrameContext frame) {
+        return frame.getClassifier().getKit().blueRanges + "/" + frame.getClassifier().getKit().redRanges
+            + "/" + frame.getClassifier().getKit().ballRanges;
+    }
+
+    private byte[] getDigest(String imagePath) throws Exception {
+        File file = new File(imagePath);
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (this) {
+            Digest known = digests.get(path);
+            if (known != null && known.lastModified == lastModified && known.length == length) return known.value;
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            for (int read; (read = input.read(buffer)) > 0; ) digest.update(buffer, 0, read);
+        }
+
+        byte[] value = digest.digest();
+        synchronized (this) {
+            digests.put(path, new Digest(lastModified, length, value));
+            Iterator<String> iterator = digests.keySet().iterator();
+            while (digests.size() > MAX_DIGESTS) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return value;
+    }
+
+    private AnalysisResult get(String key, boolean isRendered) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            // a verdict recorded without its frames cannot answer a rendered play
+            if (entry != null && (entry.isRendered || !isRendered)) {
+                hitCount++;
+                return copy(entry.result, isRendered);
+            }
+        }
+
+        Entry stored = directory == null ? null : read(key);
+        synchronized (this) {
+            if (stored != null && (stored.isRendered || !isRendered)) {
+                diskHitCount++;
+                AnalysisResult result = copy(stored.result, isRendered);
+                keep(key, stored);
+                return result;
+            }
+
+            missCount++;
+        }
+
+        if (stored != null) release(stored.result);
+        return null;
+    }
+
+    private void put(String key, AnalysisResult result, boolean isRendered) {
+        Entry entry = new Entry(copy(result, isRendered), isRendered);
+        if (directory != null) write(key, entry);
+
+        synchronized (this)
+        { keep(key, entry); }
+    }
+
+    // callers hold the lock
+    private void keep(String key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            bytes -= replaced.bytes;
+            release(replaced.result);
+        }
+        bytes += entry.bytes;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry evicted = iterator.next();
+            bytes -= evicted.bytes;
+            release(evicted.result);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A result of its own: the verdict objects are shared (nothing changes them once
+     * recorded), the annotated frames are copied for a rendered play and left out otherwise.
+     */
+    private static AnalysisResult copy(AnalysisResult recorded, boolean isRendered) {
+        AnalysisResult result = new AnalysisResult(recorded.isOffside, recorded.isGoal, recorded.message);
+        result.decision = recorded.decision;
+        result.finalBallPosition = recorded.finalBallPosition;
+        result.goals = new ArrayList<>(recorded.goals);
+        result.timings = new StageTimings();
+
+        if (isRendered) {
+            result.receiveImage = recorded.receiveImage == null ? null : recorded.receiveImage.clone();
+            result.shotImage = recorded.shotImage == null ? null : recorded.shotImage.clone();
+        }
+        return result;
+    }
+
+    private static void release(AnalysisResult result)
+    { result.release(); }
+
+    private static long getBytes(Mat image)
+    { return image == null ? 0 : image.total() * image.elemSize(); }
+
+    private Entry read(String key) {
+        File file = new File(directory, key + EXTENSION);
+        if (!file.isFile()) return null;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FORMAT_VERSION) return null;
+
+            AnalysisResult result = new AnalysisResult(input.readBoolean(), input.readBoolean(), input.readUTF());
+            result.decision = readDecision(input);
+            result.finalBallPosition = readPoint(input);
+
+            int goalCount = input.readInt();
+            result.goals = new ArrayList<>();
+            for (int i = 0; i < goalCount; i++) {
+                result.goals.add(new Goal(readLine(input), readLine(input), readLine(input)));
+            }
+
+            boolean isRendered = input.readBoolean();
+            if (isRendered) {
+                result.receiveImage = readImage(input);
+                result.shotImage = readImage(input);
+            }
+
+            // read again later means recently used, for the disk budget
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(result, isRendered);
+        }
+
+        // an unreadable or truncated file is just a miss, it is written again after the analysis
+        catch (IOException e)
+        { return null; }
+    }
+
+    private void write(String key, Entry entry) {
+        File file = new File(directory, key + EXTENSION);
+        File partial = null;
+        AnalysisResult result = entry.result;
+
+        try {
+            // a file of its own, two threads may write the same result at once
+            partial = File.createTempFile(key, ".tmp", directory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+                output.writeInt(FORMAT_VERSION);
+                output.writeBoolean(result.isOffside);
+                output.writeBoolean(result.isGoal);
+                output.writeUTF(result.message);
+                writeDecision(output, result.decision);
+                writePoint(output, result.finalBallPosition);
+
+                output.writeInt(result.goals.size());
+                for (Goal goal : result.goals) {
+                    writeLine(output, goal.post1);
+                    writeLine(output, goal.post2);
+                    writeLine(output, goal.crossbar);
+                }
+
+                output.writeBoolean(entry.isRendered);
+                if (entry.isRendered) {
+                    writeImage(output, result.receiveImage);
+                    writeImage(output, result.shotImage);
+                }
+            }
+
+            // readers never see a half-written result
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trimDirectory();
+        }
+
+        // the result stays in memory, the disk tier is only a bonus
+        catch (IOException e) {
+            if (partial != null) partial.delete();
+            System.err.println("Failed to write cached result: " + e.getMessage());
+        }
+    }
+
+    // least recently used files out once the directory is over its budget
+    private synchronized void trimDirectory() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= maxDiskBytes) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxDiskBytes) break;
+
+            long length = file.length();
+            if (file.delete()) total -= length;
+        }
+    }
+
+    private static void writeDecision(DataOutputStream output, OffsideDecision decision) throws IOException {
+        List<Player> players = decision.players;
+        output.writeInt(players.size());
+        for (Player player : players) {
+            writePoint(output, player.position);
+            output.writeBoolean(player.isBlueTeam);
+            output.writeBoolean(player.isOffside);
+            output.writeInt(player.id);
+        }
+
+        writePoint(output, decision.ballCenter);
+        output.writeDouble(decision.fieldSize.width);
+        output.writeDouble(decision.fieldSize.height);
+        output.writeUTF(decision.orientation.name());
+
+        // roles as indices into the players
+        for (Player role : new Player[] { decision.playerWithBall, decision.goalkeeperBlue, decision.goalkeeperRed,
+            decision.lastDefenderBlue, decision.lastDefenderRed, decision.lastDefender, decision.secondLastDefender })
+        { output.writeInt(role == null ? OffsideEvaluator.NONE : players.indexOf(role)); }
+
+        output.writeInt(decision.offsidePlayers.size());
+        for (Player player : decision.offsidePlayers) output.writeInt(players.indexOf(player));
+        output.writeDouble(decision.getOffsideLine());
+    }
+
+    private static OffsideDecision readDecision(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Player player = new Player(readPoint(input), input.readBoolean());
+            player.isOffside = input.readBoolean();
+            player.id = input.readInt();
+            players.add(player);
+        }
+
+        Point ballCenter = readPoint(input);
+        Size fieldSize = new Size(input.readDouble(), input.readDouble());
+        FieldOrientation orientation = FieldOrientation.valueOf(input.readUTF());
+
+        Player[] roles = new Player[7];
+        for (int i = 0; i < roles.length; i++) roles[i] = readPlayer(input, players);
+
+        int offsideCount = input.readInt();
+        List<Player> offsidePlayers = new ArrayList<>(offsideCount);
+        for (int i = 0; i < offsideCount; i++) offsidePlayers.add(readPlayer(input, players));
+
+        return new OffsideDecision(players, ballCenter, fieldSize, orientation,
+            roles[0], roles[1], roles[2], roles[3], roles[4], roles[5], roles[6], offsidePlayers, input.readDouble());
+    }
+
+    private static Player readPlayer(DataInputStream input, List<Player> players) throws IOException {
+        int index = input.readInt();
+        if (index == OffsideEvaluator.NONE) return null;
+        if (index < 0 || index >= players.size()) throw new IOException("Corrupt cached result");
+        return players.get(index);
+    }
+
+    private static void writePoint(DataOutputStream output, Point point) throws IOException {
+        output.writeBoolean(point != null);
+        if (point == null) return;
+
+        output.writeDouble(point.x);
+        output.writeDouble(point.y);
+    }
+
+    private static Point readPoint(DataInputStream input) throws IOException
+    { return input.readBoolean() ? new Point(input.readDouble(), input.readDouble()) : null; }
+
+    private static void writeLine(DataOutputStream output, Line line) throws IOException {
+        output.writeDouble(line.x1);
+        output.writeDouble(line.y1);
+        output.writeDouble(line.x2);
+        output.writeDouble(line.y2);
+    }
+
+    private static Line readLine(DataInputStream input) throws IOException
+    { return new Line(input.readDouble(), input.readDouble(), input.readDouble(), input.readDouble()); }
+
+    // annotated frames as PNG: lossless, and a low compression level keeps writing them quick
+    private static void writeImage(DataOutputStream output, Mat image) throws IOException {
+        if (image == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        MatOfByte encoded = new MatOfByte();
+        MatOfInt parameters = new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 1);
+        try {
+            if (!Imgcodecs.imencode(".png", image, encoded, parameters)) throw new IOException("Failed to encode a frame");
+
+            byte[] bytes = encoded.toArray();
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        finally {
+            encoded.release();
+            parameters.release();
+        }
+    }
+
+    private static Mat readImage(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+
+        MatOfByte encoded = new MatOfByte(bytes);
+        try {
+            Mat image = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_UNCHANGED);
+            if (image.empty()) throw new IOException("Corrupt cached frame");
+            return image;
+        }
+
+        finally
+        { encoded.release(); }
+    }
+
+    public synchronized long getBytes()
+    { return bytes; }
+
+    public synchronized long getHitCount()
+    { return hitCount; }
+
+    public synchronized long getDiskHitCount()
+    { return diskHitCount; }
+
+    public synchronized long getMissCount()
+    { return missCount; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d results, %.1f/%.1f MB, %d hits, %d from disk, %d misses",
+            entries.size(), bytes / 1048576.0, maxBytes / 1048576.0, hitCount, diskHitCount, missCount);
+    }
+}
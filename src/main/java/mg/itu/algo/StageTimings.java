@@ -0,0 +1,42 @@
+package mg.itu.algo;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall-clock duration of each pipeline stage of one analysis, in recording order.
+ * Every duration recorded also goes to the process-wide {@link PipelineMetrics}.
+ */
+public class StageTimings {
+
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+
+    public void record(String stage, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        durations.merge(stage, duration, Long::sum);
+        PipelineMetrics.recordDuration(stage, duration);
+    }
+
+    /**
+     * Adds the stages of timings recorded elsewhere, such as on another thread.
+     */
+    public void merge(StageTimings other) {
+        for (Map.Entry<String, Long> entry : other.durations.entrySet()) 
+        { durations.merge(entry.getKey(), entry.getValue(), Long::sum); }
+    }
+
+    public Map<String, Long> getDurations() 
+    { return Collections.unmodifiableMap(durations); }
+
+    public double getMillis(String stage) 
+    { return durations.getOrDefault(stage, 0L) / 1_000_000.0; }
+
+    public double getTotalMillis() {
+        long total = 0;
+        for (long duration : durations.values()) 
+        { total += duration; }
+
+        return total / 1_000_000.0;
+    }
+}
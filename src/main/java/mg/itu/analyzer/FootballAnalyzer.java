@@ -2,20 +2,21 @@ package mg.itu.analyzer;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.InputStream;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.imgcodecs.Imgcodecs;
-import mg.itu.algo.Algo;
+import mg.itu.algo.MatchSession;
+import mg.itu.algo.ResultCache;
+import mg.itu.utils.ImageConversionUtils;
 import mg.itu.algo.Algo.FieldOrientation;
 import mg.itu.algo.Algo.AnalysisResult;
 
 public class FootballAnalyzer extends JFrame {
 
-    private static final String RECEIVE_IMG_PATH = "img/picture.jpg";
-    private static final String SHOOT_IMG_PATH = "img/shoot.jpg";
-
     private JButton selectReceiveImageButton, selectShootImageButton, analyzeButton;
     private JLabel receiveImageLabel, shootImageLabel, statusLabel, scoreLabel;
     private String selectedReceiveImagePath, selectedShootImagePath;
@@ -24,8 +25,27 @@ public class FootballAnalyzer extends JFrame {
     private boolean isReversedOrientation = false;
     private FieldOrientation imageOrientation;
 
+    // the match refereed in this window, with its own scoreboard
+    private final MatchSession session = new MatchSession("local");
+
+    // previews of the selected images, decoded once at reduced resolution
+    private final ThumbnailCache thumbnails = new ThumbnailCache();
+
+    // client property of an image label holding the preview it shows, before fitting
+    private static final String PREVIEW_SOURCE = "previewSource";
+
+    // fits the previews again once the window stops being resized
+    private final Timer resizeTimer = new Timer(150, e -> {
+        fitPreview(receiveImageLabel);
+        fitPreview(shootImageLabel);
+    });
+
     public FootballAnalyzer() {
         setTitle("Video Assistance Referee (VAR)");
+        // the operator waits for each verdict, spend a second core to get it sooner
+        session.setSpeculative(true);
+        // the same play analyzed again (orientation toggled back, a second look) answers at once
+        session.setResultCache(new ResultCache());
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         
@@ -52,6 +72,13 @@ public class FootballAnalyzer extends JFrame {
         
         setSize(1200, 900);
         setLocationRelativeTo(null);
+
+        resizeTimer.setRepeats(false);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) 
+            { resizeTimer.restart(); }
+        });
         
         verifyOpenCV();
     }  
@@ -215,63 +242,116 @@ public class FootballAnalyzer extends JFrame {
             }
         });
         
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            String imagePath = selectedFile.getAbsolutePath();
-            
-            Mat testImage = Imgcodecs.imread(imagePath);
-            if (testImage.empty()) {
-                JOptionPane.showMessageDialog(this, 
-                    "Unable to read the selected image.", 
-                    "Image Error", 
-                    JOptionPane.ERROR_MESSAGE);
-                return;
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        File selectedFile = fileChooser.getSelectedFile();
+        String imagePath = selectedFile.getAbsolutePath();
+        int previewWidth = getPreviewSourceWidth();
+        int previewHeight = getPreviewSourceHeight();
+        statusLabel.setText("Loading " + selectedFile.getName() + "...");
+
+        // decoding a large image takes seconds, the reduced preview doubles as the validation
+        SwingWorker<BufferedImage, Void> loader = new SwingWorker<>() {
+            @Override
+            protected BufferedImage doInBackground() 
+            { return thumbnails.get(imagePath, previewWidth, previewHeight); }
+
+            @Override
+            protected void done() {
+                BufferedImage preview;
+                try 
+                { preview = get(); }
+
+                catch (Exception e) 
+                { preview = null; }
+
+                if (preview == null) {
+                    statusLabel.setText("Unable to read " + selectedFile.getName());
+                    JOptionPane.showMessageDialog(FootballAnalyzer.this, 
+                        "Unable to read the selected image.", 
+                        "Image Error", 
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                if (isReceiveImage) {
+                    selectedReceiveImagePath = imagePath;
+                    showPreview(preview, receiveImageLabel);
+                    statusLabel.setText("Receive image selected: " + selectedFile.getName());
+                } else {
+                    selectedShootImagePath = imagePath;
+                    showPreview(preview, shootImageLabel);
+                    statusLabel.setText("Shot image selected: " + selectedFile.getName());
+                }
+
+                // Enable analyze button only when both images are selected
+                analyzeButton.setEnabled(selectedReceiveImagePath != null && selectedShootImagePath != null);
             }
-            
-            if (isReceiveImage) {
-                selectedReceiveImagePath = imagePath;
-                displayImage(selectedReceiveImagePath, receiveImageLabel);
-                statusLabel.setText("Receive image selected: " + selectedFile.getName());
-            } else {
-                selectedShootImagePath = imagePath;
-                displayImage(selectedShootImagePath, shootImageLabel);
-                statusLabel.setText("Shot image selected: " + selectedFile.getName());
+        };
+
+        loader.execute();
+    }
+
+    /**
+     * Shows the preview in the label, fitted to the panel by a background thread.
+     */
+    private void showPreview(BufferedImage preview, JLabel targetLabel) {
+        targetLabel.putClientProperty(PREVIEW_SOURCE, preview);
+        fitPreview(targetLabel);
+    }
+
+    private void fitPreview(JLabel targetLabel) {
+        BufferedImage preview = (BufferedImage) targetLabel.getClientProperty(PREVIEW_SOURCE);
+        if (preview == null) return;
+
+        int maxWidth = getMaxImageWidth();
+        int maxHeight = getMaxImageHeight();
+
+        SwingWorker<BufferedImage, Void> fitter = new SwingWorker<>() {
+            @Override
+            protected BufferedImage doInBackground() 
+            { return ThumbnailCache.scaleToFit(preview, maxWidth, maxHeight); }
+
+            @Override
+            protected void done() {
+                // another image was shown in the meantime
+                if (targetLabel.getClientProperty(PREVIEW_SOURCE) != preview) return;
+
+                try {
+                    targetLabel.setIcon(new ImageIcon(get()));
+                    targetLabel.revalidate();
+                    targetLabel.repaint();
+                } 
+                
+                catch (Exception e) {
+                    JOptionPane.showMessageDialog(FootballAnalyzer.this,
+                        "Error displaying image: " + e.getMessage(),
+                        "Display Error",
+                        JOptionPane.ERROR_MESSAGE);
+                }
             }
-            
-            // Enable analyze button only when both images are selected
-            analyzeButton.setEnabled(selectedReceiveImagePath != null && selectedShootImagePath != null);
-        }
+        };
+
+        fitter.execute();
     }
 
-    private void displayImage(String imagePath, JLabel targetLabel) {
-        try {
-            ImageIcon imageIcon = new ImageIcon(imagePath);
-            Image image = imageIcon.getImage();
-            
-            // Calculate scaling to fit the label while maintaining aspect ratio
-            int maxWidth = getWidth() / 2 - 40;  // Half the frame width minus margins
-            int maxHeight = getHeight() - 200;   // Frame height minus space for controls
-            
-            double scale = Math.min(
-                (double) maxWidth / imageIcon.getIconWidth(),
-                (double) maxHeight / imageIcon.getIconHeight()
-            );
-            
-            Image scaledImage = image.getScaledInstance(
-                (int)(imageIcon.getIconWidth() * scale),
-                (int)(imageIcon.getIconHeight() * scale),
-                Image.SCALE_SMOOTH
-            );
-            
-            targetLabel.setIcon(new ImageIcon(scaledImage));
-            targetLabel.revalidate();
-            targetLabel.repaint();
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this,
-                "Error displaying image: " + e.getMessage(),
-                "Display Error",
-                JOptionPane.ERROR_MESSAGE);
-        }
+    private int getMaxImageWidth()
+    { return getWidth() / 2 - 40; }  // Half the frame width minus margins
+
+    private int getMaxImageHeight()
+    { return getHeight() - 200; }    // Frame height minus space for controls
+
+    // previews are kept large enough for a maximized window, resizing then never decodes again
+    private int getPreviewSourceWidth()
+    { return Math.max(getMaxImageWidth(), getGraphicsConfiguration().getBounds().width / 2); }
+
+    private int getPreviewSourceHeight()
+    { return Math.max(getMaxImageHeight(), getGraphicsConfiguration().getBounds().height); }
+
+    // the annotated frame is copied straight from the Mat, shrunk to the preview size when larger
+    private BufferedImage toPreview(Mat image, int previewWidth, int previewHeight) {
+        if (image.cols() <= previewWidth && image.rows() <= previewHeight) return ImageConversionUtils.toBufferedImage(image);
+        return ImageConversionUtils.toBufferedImage(image, previewWidth, previewHeight);
     }
 
     private void analyzePlay() {
@@ -281,16 +361,34 @@ public class FootballAnalyzer extends JFrame {
         selectShootImageButton.setEnabled(false);
         analyzeButton.setEnabled(false);
         statusLabel.setText("Analyzing play...");
+        int previewWidth = getPreviewSourceWidth();
+        int previewHeight = getPreviewSourceHeight();
         
         SwingWorker<AnalysisResult, Void> worker = new SwingWorker<>() {
+            private BufferedImage receivePreview, shotPreview;
+
             @Override
             protected AnalysisResult doInBackground() throws Exception {
-                return Algo.analyzePlay(
+                AnalysisResult result = session.analyzePlay(
                     selectedReceiveImagePath,
                     selectedShootImagePath,
                     isReversedOrientation,
-                    imageOrientation
+                    imageOrientation,
+                    true
                 );
+
+                // the previews are made here too, the annotated frames are freed right after
+                try {
+                    receivePreview = toPreview(result.receiveImage, previewWidth, previewHeight);
+                    shotPreview = result.shotImage != null
+                        ? toPreview(result.shotImage, previewWidth, previewHeight)
+                        : thumbnails.get(selectedShootImagePath, previewWidth, previewHeight);
+                }
+
+                finally 
+                { result.release(); }
+
+                return result;
             }
             
             @Override
@@ -300,10 +398,11 @@ public class FootballAnalyzer extends JFrame {
                     
                     // Display the analysis results
                     statusLabel.setText(result.message);
+                    scoreLabel.setText("Score: " + result.score);
                     
-                    // Show visual results
-                    displayImage(RECEIVE_IMG_PATH, receiveImageLabel);
-                    displayImage(SHOOT_IMG_PATH, shootImageLabel);
+                    // Show visual results, the shot frame is only annotated when the play is not offside
+                    showPreview(receivePreview, receiveImageLabel);
+                    if (shotPreview != null) showPreview(shotPreview, shootImageLabel);
                     
                     // Enable buttons for next analysis
                     selectReceiveImageButton.setEnabled(true);
@@ -0,0 +1,189 @@
+package mg.itu.analyzer;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import mg.itu.utils.ImageConversionUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Previews of the selected images, decoded at reduced resolution and kept within a byte
+ * budget, least recently used first out. A preview is reused as long as its file has not
+ * changed and it is at least as large as asked for, so reselecting an image or resizing
+ * the window does not decode it again.
+ *
+ * Safe to share between threads: previews are loaded off the Event Dispatch Thread.
+ */
+public class ThumbnailCache {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    // reductions the decoder applies while decoding (DCT scaling for JPEG), largest first
+    private static final int[] REDUCTIONS = { 8, 4, 2 };
+
+    private static class Entry {
+        final long lastModified;
+        final int reduction;
+        final BufferedImage preview;
+
+        Entry(long lastModified, int reduction, BufferedImage preview) {
+            this.lastModified = lastModified;
+            this.reduction = reduction;
+            this.preview = preview;
+        }
+    }
+
+    private final long maxBytes;
+    private long bytes;
+
+    // access-ordered so the first entry is the least recently used preview
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hitCount;
+    private long missCount;
+
+    public ThumbnailCache()
+    { this(DEFAULT_MAX_BYTES); }
+
+    public ThumbnailCache(long maxBytes)
+    { this.maxBytes = maxBytes; }
+
+    /**
+     * Preview of the image file covering a box of the given size (the whole image when
+     * smaller), null when the file cannot be decoded.
+     */
+    public BufferedImage get(String imagePath, int minWidth, int minHeight) {
+        File file = new File(imagePath);
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        int reduction = chooseReduction(file, minWidth, minHeight);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.lastModified == lastModified && entry.reduction <= reduction) {
+                hitCount++;
+                return entry.preview;
+            }
+            missCount++;
+        }
+
+        // decoded outside the lock, two threads loading the same file both decode it
+        Mat image = Imgcodecs.imread(imagePath, toDecodeFlag(reduction));
+        try {
+            if (image.empty()) return null;
+
+            BufferedImage preview = ImageConversionUtils.toBufferedImage(image);
+            put(key, new Entry(lastModified, reduction, preview));
+            return preview;
+        }
+
+        finally
+        { image.release(); }
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) bytes -= getBytes(replaced.preview);
+        bytes += getBytes(entry.preview);
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Entry evicted = iterator.next().getValue();
+            if (evicted == entry) continue;
+
+            bytes -= getBytes(evicted.preview);
+            iterator.remove();
+        }
+    }
+
+    private static long getBytes(BufferedImage image)
+    { return (long) image.getWidth() * image.getHeight() * image.getColorModel().getPixelSize() / 8; }
+
+    /**
+     * Largest reduction that still covers the box, from the image size in the file header.
+     * Without a readable header the image is decoded at full resolution.
+     */
+    private static int chooseReduction(File file, int minWidth, int minHeight) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) return 1;
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return 1;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                for (int reduction : REDUCTIONS) {
+                    if (width / reduction >= minWidth && height / reduction >= minHeight) return reduction;
+                }
+                return 1;
+            }
+
+            finally
+            { reader.dispose(); }
+        }
+
+        catch (Exception e)
+        { return 1; }
+    }
+
+    private static int toDecodeFlag(int reduction) {
+        switch (reduction) {
+            case 8: return Imgcodecs.IMREAD_REDUCED_COLOR_8;
+            case 4: return Imgcodecs.IMREAD_REDUCED_COLOR_4;
+            case 2: return Imgcodecs.IMREAD_REDUCED_COLOR_2;
+            default: return Imgcodecs.IMREAD_COLOR;
+        }
+    }
+
+    /**
+     * The preview fitted in the box, keeping its aspect ratio. Meant for the background
+     * threads too: it draws into a new image and never touches a component.
+     */
+    public static BufferedImage scaleToFit(BufferedImage preview, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / preview.getWidth(), (double) maxHeight / preview.getHeight());
+        if (scale <= 0 || scale == 1) return preview;
+
+        int width = Math.max(1, (int) (preview.getWidth() * scale));
+        int height = Math.max(1, (int) (preview.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(preview, 0, 0, width, height, null);
+        }
+
+        finally
+        { graphics.dispose(); }
+
+        return scaled;
+    }
+
+    public synchronized long getBytes()
+    { return bytes; }
+
+    public synchronized long getHitCount()
+    { return hitCount; }
+
+    public synchronized long getMissCount()
+    { return missCount; }
+}
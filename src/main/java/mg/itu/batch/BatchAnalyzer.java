@@ -0,0 +1,395 @@
+package mg.itu.batch;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.Algo.AnalysisResult;
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.algo.FrameContext;
+import mg.itu.algo.PipelineMetrics;
+import mg.itu.algo.ResultCache;
+import mg.itu.algo.StageTimings;
+import mg.itu.entity.KitConfiguration;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.FrameCache;
+import mg.itu.utils.GoalCache;
+import mg.itu.utils.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless runner that analyzes many receive/shot pairs on a bounded worker pool
+ * and streams one JSON verdict per line.
+ *
+ * Pairs come either from a directory (files named {@code <name>_receive.<ext>}
+ * and {@code <name>_shot.<ext>}) or from a manifest with one
+ * {@code receive,shot[,horizontal|vertical[,reversed]]} line per pair.
+ */
+public class BatchAnalyzer {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static final String RECEIVE_SUFFIX = "_receive";
+    private static final String[] SHOT_SUFFIXES = { "_shot", "_shoot" };
+    private static final String IMAGE_EXTENSIONS = ".*\\.(jpg|jpeg|png|bmp)$";
+
+    public static class PlayPair {
+        public final String id;
+        public final String receivePath;
+        public final String shotPath;
+        public final FieldOrientation orientation;
+        public final boolean isReversedOrientation;
+
+        public PlayPair(String id, String receivePath, String shotPath,
+        FieldOrientation orientation, boolean isReversedOrientation)
+        {
+            this.id = id;
+            this.receivePath = receivePath;
+            this.shotPath = shotPath;
+            this.orientation = orientation;
+            this.isReversedOrientation = isReversedOrientation;
+        }
+    }
+
+    private final int threads;
+    private final String renderDirectory;
+    private final Writer output;
+    private final ColorClassifier classifier;
+    private int pyramidFactor = 1;
+    private GoalCache goalCache;
+    private ResultCache resultCache;
+
+    private final AtomicInteger analyzedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    /**
+     * @param renderDirectory where annotated frames are written, null for the verdict-only mode
+     */
+    public BatchAnalyzer(int threads, String renderDirectory, Writer output) 
+    { this(threads, renderDirectory, output, ColorClassifier.DEFAULT); }
+
+    public BatchAnalyzer(int threads, String renderDirectory, Writer output, ColorClassifier classifier) {
+        this.threads = threads;
+        this.renderDirectory = renderDirectory;
+        this.output = output;
+        this.classifier = classifier;
+    }
+
+    /**
+     * @param factor coarse-to-fine detection factor, 0 for automatic and 1 for full resolution
+     */
+    public void setPyramidFactor(int factor)
+    { this.pyramidFactor = factor; }
+
+    /**
+     * @param goalCache shared by every pair when all shots come from one fixed camera, null otherwise
+     */
+    public void setGoalCache(GoalCache goalCache)
+    { this.goalCache = goalCache; }
+
+    /**
+     * @param resultCache where pairs already analyzed by an earlier run are looked up first, null to analyze all
+     */
+    public void setResultCache(ResultCache resultCache)
+    { this.resultCache = resultCache; }
+
+    public void run(List<PlayPair> pairs) throws InterruptedException {
+        // the pool already uses every core, keep OpenCV from spawning its own threads on top
+        Core.setNumThreads(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // bound the pairs in flight so a whole season is never queued in memory at once
+        Semaphore inFlight = new Semaphore(threads * 2);
+
+        try {
+            for (PlayPair pair : pairs) {
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try
+                    { writeLine(analyzePair(pair)); }
+
+                    finally
+                    { inFlight.release(); }
+                });
+            }
+        }
+
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private String analyzePair(PlayPair pair) {
+        String header = "{\"id\":" + JsonUtils.quote(pair.id)
+            + ",\"receive\":" + JsonUtils.quote(pair.receivePath)
+            + ",\"shot\":" + JsonUtils.quote(pair.shotPath);
+
+        try (FrameContext receiveFrame = new FrameContext(pair.receivePath);
+             FrameContext shotFrame = new FrameContext(pair.shotPath)) 
+        {
+            receiveFrame.setClassifier(classifier);
+            shotFrame.setClassifier(classifier);
+            receiveFrame.setPyramidFactor(pyramidFactor);
+            shotFrame.setPyramidFactor(pyramidFactor);
+
+            // pairs are independent plays, scored by no session
+            ResultCache.Analysis analysis = () -> Algo.analyzePlay(
+                receiveFrame,
+                shotFrame,
+                pair.isReversedOrientation,
+                pair.orientation,
+                renderDirectory != null,
+                goalCache
+            );
+            AnalysisResult result = resultCache == null
+                ? analysis.run()
+                : resultCache.analyze(receiveFrame, shotFrame, pair.isReversedOrientation, pair.orientation, renderDirectory != null, analysis);
+
+            try {
+                if (renderDirectory != null) {
+                    writeImage(result.timings, "receive.encode", new File(renderDirectory, pair.id + "_receive.jpg"), result.receiveImage);
+                    writeImage(result.timings, "shot.encode", new File(renderDirectory, pair.id + "_shot.jpg"), result.shotImage);
+                }
+            }
+
+            finally
+            { result.release(); }
+
+            analyzedCount.incrementAndGet();
+            return header + ",\"verdict\":" + JsonUtils.toJson(result) + "}";
+        }
+
+        catch (Exception e) {
+            failedCount.incrementAndGet();
+            return header + ",\"error\":" + JsonUtils.quote(String.valueOf(e.getMessage())) + "}";
+        }
+    }
+
+    private static void writeImage(StageTimings timings, String stage, File file, Mat image) throws Exception {
+        if (image == null) return;
+
+        long start = System.nanoTime();
+        if (!Imgcodecs.imwrite(file.getPath(), image))
+        { throw new Exception("Failed to write result image: " + file.getPath()); }
+        timings.record(stage, start);
+        PipelineMetrics.record("encode", start);
+    }
+
+    private void writeLine(String line) {
+        synchronized (output) {
+            try {
+                output.write(line);
+                output.write('\n');
+                output.flush();
+            }
+
+            catch (IOException e)
+            { System.err.println("Failed to write verdict: " + e.getMessage()); }
+        }
+    }
+
+    public int getAnalyzedCount()
+    { return analyzedCount.get(); }
+
+    public int getFailedCount()
+    { return failedCount.get(); }
+
+    public static List<PlayPair> findPairs(File directory, FieldOrientation orientation, boolean isReversedOrientation) {
+        List<PlayPair> pairs = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) return pairs;
+
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.toLowerCase().matches(IMAGE_EXTENSIONS)) continue;
+
+            int extensionIndex = name.lastIndexOf('.');
+            String baseName = name.substring(0, extensionIndex);
+            if (!baseName.endsWith(RECEIVE_SUFFIX)) continue;
+
+            String id = baseName.substring(0, baseName.length() - RECEIVE_SUFFIX.length());
+            File shot = findShot(directory, id, name.substring(extensionIndex));
+            if (shot == null) {
+                System.err.println("No shot image for " + file.getPath() + ", skipped");
+                continue;
+            }
+
+            pairs.add(new PlayPair(id, file.getPath(), shot.getPath(), orientation, isReversedOrientation));
+        }
+
+        return pairs;
+    }
+
+    private static File findShot(File directory, String id, String preferredExtension) {
+        for (String suffix : SHOT_SUFFIXES) {
+            File sameExtension = new File(directory, id + suffix + preferredExtension);
+            if (sameExtension.isFile()) return sameExtension;
+
+            for (String extension : new String[] { ".jpg", ".jpeg", ".png", ".bmp" }) {
+                File candidate = new File(directory, id + suffix + extension);
+                if (candidate.isFile()) return candidate;
+            }
+        }
+        return null;
+    }
+
+    public static List<PlayPair> readManifest(File manifest, FieldOrientation orientation, boolean isReversedOrientation)
+        throws IOException
+    {
+        List<PlayPair> pairs = new ArrayList<>();
+        File baseDirectory = manifest.getAbsoluteFile().getParentFile();
+        List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] fields = line.split(",");
+            if (fields.length < 2)
+            { throw new IOException("Invalid manifest line " + (i + 1) + ": " + line); }
+
+            File receive = resolve(baseDirectory, fields[0].trim());
+            File shot = resolve(baseDirectory, fields[1].trim());
+            FieldOrientation pairOrientation = fields.length > 2
+                ? FieldOrientation.valueOf(fields[2].trim().toUpperCase())
+                : orientation;
+            boolean isPairReversed = fields.length > 3
+                ? fields[3].trim().equalsIgnoreCase("reversed")
+                : isReversedOrientation;
+
+            String id = (i + 1) + "_" + receive.getName().replaceFirst("\\.[^.]*$", "");
+            pairs.add(new PlayPair(id, receive.getPath(), shot.getPath(), pairOrientation, isPairReversed));
+        }
+
+        return pairs;
+    }
+
+    private static File resolve(File baseDirectory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDirectory, path);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: BatchAnalyzer <pairs-directory|manifest-file> [options]");
+        System.err.println("  --orientation horizontal|vertical  field orientation (default: horizontal)");
+        System.err.println("  --reversed                         reversed side for every pair");
+        System.err.println("  --threads N                        worker count (default: available cores)");
+        System.err.println("  --output FILE                      JSON lines destination (default: stdout)");
+        System.err.println("  --render-dir DIR                   annotated frames directory (default: img/batch)");
+        System.err.println("  --verdict-only                     skip all drawing and image writes");
+        System.err.println("  --kit FILE                         kit and ball colours (HSV ranges, see KitConfiguration)");
+        System.err.println("  --pyramid auto|N                   detect on a level shrunk N times, refine at full resolution");
+        System.err.println("  --fixed-camera                     every shot comes from the same camera, reuse its goals");
+        System.err.println("  --frame-cache-mb N                 decoded frames kept for images used by several pairs (default: 256, 0 disables)");
+        System.err.println("  --metrics N                        print stage latency percentiles every N seconds, and at the end");
+        System.err.println("  --result-cache DIR                 keep verdicts there, pairs unchanged since an earlier run are not analyzed again");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            printUsage();
+            System.exit(1);
+        }
+
+        File input = new File(args[0]);
+        FieldOrientation orientation = FieldOrientation.HORIZONTAL;
+        boolean isReversedOrientation = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputPath = null;
+        String renderDirectory = "img/batch";
+        boolean isVerdictOnly = false;
+        KitConfiguration kit = KitConfiguration.DEFAULT;
+        int pyramidFactor = 1;
+        boolean isFixedCamera = false;
+        String resultCacheDirectory = null;
+        int metricsInterval = 0;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--orientation": orientation = FieldOrientation.valueOf(args[++i].toUpperCase()); break;
+                case "--reversed": isReversedOrientation = true; break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--output": outputPath = args[++i]; break;
+                case "--render-dir": renderDirectory = args[++i]; break;
+                case "--verdict-only": isVerdictOnly = true; break;
+                case "--kit": kit = KitConfiguration.load(args[++i]); break;
+                case "--pyramid": i++; pyramidFactor = args[i].equals("auto") ? 0 : Math.max(1, Integer.parseInt(args[i])); break;
+                case "--fixed-camera": isFixedCamera = true; break;
+                case "--frame-cache-mb": FrameCache.SHARED.setMaxBytes(Long.parseLong(args[++i]) << 20); break;
+                case "--result-cache": resultCacheDirectory = args[++i]; break;
+                case "--metrics": metricsInterval = Math.max(1, Integer.parseInt(args[++i])); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        List<PlayPair> pairs = input.isDirectory()
+            ? findPairs(input, orientation, isReversedOrientation)
+            : readManifest(input, orientation, isReversedOrientation);
+
+        if (isVerdictOnly) {
+            renderDirectory = null;
+        } else {
+            new File(renderDirectory).mkdirs();
+        }
+
+        Writer output = outputPath == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+            : new BufferedWriter(new FileWriter(outputPath, StandardCharsets.UTF_8));
+
+        ColorClassifier classifier = ColorClassifier.forKit(kit);
+        BatchAnalyzer analyzer = new BatchAnalyzer(threads, renderDirectory, output, classifier);
+        analyzer.setPyramidFactor(pyramidFactor);
+        if (isFixedCamera) analyzer.setGoalCache(new GoalCache());
+
+        ResultCache resultCache = resultCacheDirectory == null ? null
+            : new ResultCache(ResultCache.DEFAULT_MAX_BYTES, new File(resultCacheDirectory), ResultCache.DEFAULT_MAX_DISK_BYTES);
+        analyzer.setResultCache(resultCache);
+        if (resultCache != null) PipelineMetrics.registerNativeBytes("resultCache", resultCache::getBytes);
+
+        if (metricsInterval > 0) PipelineMetrics.startReporting(metricsInterval, System.err);
+        long start = System.nanoTime();
+
+        try
+        { analyzer.run(pairs); }
+
+        finally {
+            if (outputPath == null) output.flush();
+            else output.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Analyzed %d pairs (%d failed) in %.1f s with %d workers, %.1f pairs/s%n",
+            analyzer.getAnalyzedCount(), analyzer.getFailedCount(), seconds, threads, pairs.size() / Math.max(seconds, 1e-9));
+        System.err.println("Frame cache: " + FrameCache.SHARED);
+        if (resultCache != null) System.err.println("Result cache: " + resultCache);
+
+        if (metricsInterval > 0) {
+            PipelineMetrics.stopReporting();
+            System.err.println(PipelineMetrics.snapshot());
+        }
+    }
+}
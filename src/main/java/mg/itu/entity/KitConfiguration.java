@@ -0,0 +1,110 @@
+package mg.itu.entity;
+
+import org.opencv.core.Scalar;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Colours of the two kits and of the ball, as OpenCV HSV ranges (H in 0..180).
+ * A colour may need several ranges, red wraps around the hue circle.
+ */
+public class KitConfiguration {
+
+    public static class HsvRange {
+        public final Scalar min;
+        public final Scalar max;
+
+        public HsvRange(Scalar min, Scalar max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public String toString()
+        { return format(min) + "-" + format(max); }
+
+        private static String format(Scalar scalar)
+        { return (int) scalar.val[0] + "," + (int) scalar.val[1] + "," + (int) scalar.val[2]; }
+    }
+
+    public static final KitConfiguration DEFAULT = new KitConfiguration(
+        List.of(new HsvRange(new Scalar(100, 50, 50), new Scalar(130, 255, 255))),
+        List.of(
+            new HsvRange(new Scalar(0, 50, 50), new Scalar(10, 255, 255)),
+            new HsvRange(new Scalar(170, 50, 50), new Scalar(180, 255, 255))
+        ),
+        List.of(new HsvRange(new Scalar(0, 0, 0), new Scalar(180, 255, 30)))
+    );
+
+    public final List<HsvRange> blueRanges;
+    public final List<HsvRange> redRanges;
+    public final List<HsvRange> ballRanges;
+
+    public KitConfiguration(List<HsvRange> blueRanges, List<HsvRange> redRanges, List<HsvRange> ballRanges) {
+        this.blueRanges = Collections.unmodifiableList(new ArrayList<>(blueRanges));
+        this.redRanges = Collections.unmodifiableList(new ArrayList<>(redRanges));
+        this.ballRanges = Collections.unmodifiableList(new ArrayList<>(ballRanges));
+    }
+
+    /**
+     * Reads a kit file, any missing key keeps the default ranges:
+     * <pre>
+     * blue=100,50,50-130,255,255
+     * red=0,50,50-10,255,255;170,50,50-180,255,255
+     * ball=0,0,0-180,255,30
+     * </pre>
+     */
+    public static KitConfiguration load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new FileReader(path, StandardCharsets.UTF_8))
+        { properties.load(reader); }
+
+        return new KitConfiguration(
+            parseRanges(properties.getProperty("blue"), DEFAULT.blueRanges),
+            parseRanges(properties.getProperty("red"), DEFAULT.redRanges),
+            parseRanges(properties.getProperty("ball"), DEFAULT.ballRanges)
+        );
+    }
+
+    private static List<HsvRange> parseRanges(String value, List<HsvRange> defaults) throws IOException {
+        if (value == null || value.isBlank()) return defaults;
+
+        List<HsvRange> ranges = new ArrayList<>();
+        for (String range : value.split(";")) {
+            String[] bounds = range.trim().split("-");
+            if (bounds.length != 2)
+            { throw new IOException("Invalid HSV range: " + range); }
+
+            ranges.add(new HsvRange(parseScalar(bounds[0]), parseScalar(bounds[1])));
+        }
+        return ranges;
+    }
+
+    private static Scalar parseScalar(String value) throws IOException {
+        String[] channels = value.trim().split(",");
+        if (channels.length != 3)
+        { throw new IOException("Invalid HSV value: " + value); }
+
+        try {
+            return new Scalar(
+                Double.parseDouble(channels[0].trim()),
+                Double.parseDouble(channels[1].trim()),
+                Double.parseDouble(channels[2].trim())
+            );
+        }
+
+        catch (NumberFormatException e)
+        { throw new IOException("Invalid HSV value: " + value); }
+    }
+
+    @Override
+    public String toString()
+    { return "blue=" + blueRanges + " red=" + redRanges + " ball=" + ballRanges; }
+}
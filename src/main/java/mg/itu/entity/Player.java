@@ -3,15 +3,20 @@ package mg.itu.entity;
 import org.opencv.core.Point;
 
 public class Player {
-    
+
+    // id of a player not followed across frames
+    public static final int UNTRACKED = -1;
+
     public Point position;
     public boolean isBlueTeam;
     public boolean isOffside;  // New field
+    public int id;  // stable across the frames of a video when tracked
 
     public Player(Point position, boolean isBlueTeam) {
         this.position = position;
         this.isBlueTeam = isBlueTeam;
         this.isOffside = false;  // Initialize as not offside
+        this.id = UNTRACKED;
     }
 
     public Point getPosition() {
@@ -30,6 +35,14 @@ public class Player {
         isBlueTeam = blueTeam;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public boolean isOffside() {
         return isOffside;
     }
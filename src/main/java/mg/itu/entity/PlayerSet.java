@@ -0,0 +1,113 @@
+package mg.itu.entity;
+
+import org.opencv.core.Point;
+
+import java.util.List;
+
+/**
+ * Players of one frame in parallel primitive arrays, for the rule engine: player {@code i}
+ * stands at ({@link #getX(int)}, {@link #getY(int)}) and plays for the team given by
+ * {@link #isBlueTeam(int)}. The arrays only grow, so a set reused from frame to frame
+ * (or from one what-if to the next) stops allocating once it has seen the largest frame.
+ */
+public class PlayerSet {
+
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private int count;
+    private double[] x;
+    private double[] y;
+    private boolean[] isBlueTeam;
+    private boolean[] isOffside;
+
+    public PlayerSet()
+    { this(DEFAULT_CAPACITY); }
+
+    public PlayerSet(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        isBlueTeam = new boolean[capacity];
+        isOffside = new boolean[capacity];
+    }
+
+    /**
+     * Replaces the content with the detected players.
+     * @param isTeamSwapped whether every player changes team (reversed orientation)
+     */
+    public void setAll(List<Player> players, boolean isTeamSwapped) {
+        clear();
+        for (Player player : players) {
+            add(player.position.x, player.position.y, player.isBlueTeam != isTeamSwapped);
+        }
+    }
+
+    public void clear()
+    { count = 0; }
+
+    /**
+     * @return the index of the new player
+     */
+    public int add(double playerX, double playerY, boolean isPlayerBlue) {
+        if (count == x.length) grow();
+
+        x[count] = playerX;
+        y[count] = playerY;
+        isBlueTeam[count] = isPlayerBlue;
+        isOffside[count] = false;
+        return count++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, x.length * 2);
+        double[] grownX = new double[capacity];
+        double[] grownY = new double[capacity];
+        boolean[] grownTeams = new boolean[capacity];
+        boolean[] grownOffside = new boolean[capacity];
+        System.arraycopy(x, 0, grownX, 0, count);
+        System.arraycopy(y, 0, grownY, 0, count);
+        System.arraycopy(isBlueTeam, 0, grownTeams, 0, count);
+        System.arraycopy(isOffside, 0, grownOffside, 0, count);
+        x = grownX;
+        y = grownY;
+        isBlueTeam = grownTeams;
+        isOffside = grownOffside;
+    }
+
+    public int size()
+    { return count; }
+
+    public double getX(int i)
+    { return x[i]; }
+
+    public double getY(int i)
+    { return y[i]; }
+
+    /**
+     * Coordinate along the attack axis: x on horizontal fields, y on vertical ones.
+     */
+    public double getDepth(int i, boolean isHorizontal)
+    { return isHorizontal ? x[i] : y[i]; }
+
+    public boolean isBlueTeam(int i)
+    { return isBlueTeam[i]; }
+
+    public boolean isOffside(int i)
+    { return isOffside[i]; }
+
+    public void setOffside(int i, boolean isPlayerOffside)
+    { isOffside[i] = isPlayerOffside; }
+
+    /**
+     * Moves a player, for what-if evaluations.
+     */
+    public void setPosition(int i, double playerX, double playerY) {
+        x[i] = playerX;
+        y[i] = playerY;
+    }
+
+    public Player toPlayer(int i) {
+        Player player = new Player(new Point(x[i], y[i]), isBlueTeam[i]);
+        player.isOffside = isOffside[i];
+        return player;
+    }
+}
@@ -0,0 +1,460 @@
+package mg.itu.generator;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.entity.Player;
+import mg.itu.utils.JsonUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Renders pitches the way the hand-drawn inputs look: white field with thin dark
+ * markings, blue and red player circles, a black ball and a goal frame at each end
+ * of the attack axis (posts and crossbar). Scenes are built so that the requested
+ * offside/goal verdict holds, with a margin of one player radius around the line.
+ *
+ * Goal frames are upright (vertical posts, horizontal crossbar) on vertical fields,
+ * which is the layout {@code GoalCageUtils} looks for; on horizontal fields they are
+ * drawn rotated along the attack axis.
+ */
+public class PitchSceneGenerator {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static final Scalar BACKGROUND_COLOR = new Scalar(255, 255, 255);
+    private static final Scalar MARKING_COLOR = new Scalar(90, 90, 90);
+    private static final Scalar BLUE_PLAYER_COLOR = new Scalar(220, 30, 10);
+    private static final Scalar RED_PLAYER_COLOR = new Scalar(40, 40, 225);
+    private static final Scalar BALL_COLOR = new Scalar(0, 0, 0);
+
+    // goal frame size relative to the pitch, close to the hand-drawn inputs
+    private static final double GOAL_DEPTH_RATIO = 0.09;
+    private static final double GOAL_WIDTH_RATIO = 0.44;
+
+    private static final int MAX_PLACEMENT_ATTEMPTS = 500;
+
+    private final Random random;
+
+    public PitchSceneGenerator(long seed)
+    { this.random = new Random(seed); }
+
+    /**
+     * Builds a scene whose ground truth matches the config (offside / goal), as long as
+     * the teams are large enough for it: without a defending outfield player there is no
+     * offside line and the scene is never offside.
+     */
+    public SyntheticScene generate(SceneConfig config) {
+        int radius = config.getPlayerRadius();
+        boolean isBlueAttacking = config.isBlueAttacking;
+        int attackerCount = isBlueAttacking ? config.blueCount : config.redCount;
+        int defenderCount = isBlueAttacking ? config.redCount : config.blueCount;
+
+        double axisLength = getAxisLength(config.width, config.height, config.orientation);
+        double gap = 2.0 * radius / axisLength;
+        double spacing = 4.0 * radius;
+
+        List<Player> players = new ArrayList<>();
+        List<Point> taken = new ArrayList<>();
+        double lineDepth = 0.55 + 0.25 * random.nextDouble();
+
+        // defending team: goalkeeper in front of its goal, one player setting the line, the rest behind it
+        if (defenderCount > 0)
+        { addPlayer(players, taken, toPoint(0.96, 0.5, isBlueAttacking, config), !isBlueAttacking); }
+
+        if (defenderCount > 1)
+        { addPlayer(players, taken, place(taken, lineDepth, lineDepth, spacing, isBlueAttacking, config), !isBlueAttacking); }
+
+        for (int i = 2; i < defenderCount; i++) {
+            Point position = place(taken, 0.35, lineDepth - gap, spacing, isBlueAttacking, config);
+            addPlayer(players, taken, position, !isBlueAttacking);
+        }
+
+        // attacking team: goalkeeper, ball carrier, an optional player beyond the line, the rest behind it
+        boolean isOffside = config.isOffside && defenderCount > 1 && attackerCount > 1;
+        Player playerWithBall = null;
+        Point ballCenter = null;
+
+        for (int i = 0; i < attackerCount; i++) {
+            Point position;
+            if (i == 0 && attackerCount > 1) {
+                position = toPoint(0.04, 0.5, isBlueAttacking, config);
+            } else if (i == 1 || attackerCount == 1) {
+                position = place(taken, 0.30, lineDepth - gap, spacing, isBlueAttacking, config);
+            } else if (i == 2 && isOffside) {
+                position = place(taken, lineDepth + gap, 0.92, spacing, isBlueAttacking, config);
+            } else {
+                position = place(taken, 0.10, lineDepth - gap, spacing, isBlueAttacking, config);
+            }
+
+            Player player = addPlayer(players, taken, position, isBlueAttacking);
+            if (playerWithBall == null && (i == 1 || attackerCount == 1)) {
+                playerWithBall = player;
+                // the ball sits just ahead of the carrier, closer to it than to anyone else
+                double offset = 1.7 * radius / axisLength;
+                ballCenter = toPoint(toDepth(position, isBlueAttacking, config) + offset,
+                    toCross(position, config), isBlueAttacking, config);
+            }
+        }
+
+        if (ballCenter == null)
+        { ballCenter = toPoint(0.5, 0.5, isBlueAttacking, config); }
+
+        // shot frame: the ball either inside the attacked goal frame or wide of it
+        double goalDepth = GOAL_DEPTH_RATIO * 0.5;
+        double crossOffset = (GOAL_WIDTH_RATIO / 2) * (0.2 + 0.6 * random.nextDouble()) * (random.nextBoolean() ? 1 : -1);
+        Point shotBallCenter = config.isGoal
+            ? toPoint(1 - goalDepth, 0.5 + crossOffset, isBlueAttacking, config)
+            : toPoint(1 - goalDepth, random.nextBoolean() ? 0.12 : 0.88, isBlueAttacking, config);
+
+        return evaluate(config.width, config.height, config.orientation, radius, config.getBallRadius(),
+            players, ballCenter, shotBallCenter);
+    }
+
+    /**
+     * Ground truth from exact positions, following the rules the analyzer applies: the
+     * player nearest to the ball has it, the defender nearest to its own goal is the
+     * goalkeeper, the deepest other defender sets the line and any attacker beyond it is offside.
+     */
+    public static SyntheticScene evaluate(int width, int height, FieldOrientation orientation, int playerRadius,
+    int ballRadius, List<Player> players, Point ballCenter, Point shotBallCenter)
+    {
+        Player playerWithBall = null;
+        double nearest = Double.MAX_VALUE;
+        for (Player player : players) {
+            double distance = Math.hypot(player.position.x - ballCenter.x, player.position.y - ballCenter.y);
+            if (distance < nearest) {
+                nearest = distance;
+                playerWithBall = player;
+            }
+        }
+
+        double offsideLine = Double.NaN;
+        boolean isOffside = false;
+
+        if (playerWithBall != null) {
+            boolean isBlueAttacking = playerWithBall.isBlueTeam;
+            boolean isHorizontal = orientation == FieldOrientation.HORIZONTAL;
+
+            // the defending team's own goal: blue defends the 0 end, red the far end
+            Point defendedGoal = isBlueAttacking
+                ? (isHorizontal ? new Point(width, height / 2.0) : new Point(width / 2.0, height))
+                : (isHorizontal ? new Point(0, height / 2.0) : new Point(width / 2.0, 0));
+
+            Player goalkeeper = null;
+            double goalDistance = Double.MAX_VALUE;
+            for (Player player : players) {
+                if (player.isBlueTeam == isBlueAttacking) continue;
+
+                double distance = Math.hypot(player.position.x - defendedGoal.x, player.position.y - defendedGoal.y);
+                if (distance < goalDistance) {
+                    goalDistance = distance;
+                    goalkeeper = player;
+                }
+            }
+
+            for (Player player : players) {
+                if (player.isBlueTeam == isBlueAttacking || player == goalkeeper) continue;
+
+                double axis = isHorizontal ? player.position.x : player.position.y;
+                if (Double.isNaN(offsideLine) || (isBlueAttacking ? axis > offsideLine : axis < offsideLine))
+                { offsideLine = axis; }
+            }
+
+            if (!Double.isNaN(offsideLine)) {
+                for (Player player : players) {
+                    if (player.isBlueTeam != isBlueAttacking) continue;
+
+                    double axis = isHorizontal ? player.position.x : player.position.y;
+                    if (isBlueAttacking ? axis > offsideLine : axis < offsideLine) {
+                        player.setOffside(true);
+                        isOffside = true;
+                    }
+                }
+            }
+        }
+
+        boolean isGoal = !isOffside && playerWithBall != null && shotBallCenter != null
+            && isInsideGoal(shotBallCenter, width, height, orientation, !playerWithBall.isBlueTeam);
+
+        return new SyntheticScene(width, height, orientation, playerRadius, ballRadius, players, ballCenter,
+            shotBallCenter, playerWithBall, offsideLine, isOffside, isGoal);
+    }
+
+    /**
+     * Whether the point is inside the goal frame defended by the given team.
+     */
+    public static boolean isInsideGoal(Point point, int width, int height, FieldOrientation orientation, boolean isBlueGoal) {
+        boolean isHorizontal = orientation == FieldOrientation.HORIZONTAL;
+        double axisLength = getAxisLength(width, height, orientation);
+        double crossLength = getCrossLength(width, height, orientation);
+        double axis = isHorizontal ? point.x : point.y;
+        double cross = isHorizontal ? point.y : point.x;
+
+        double depthFromGoal = isBlueGoal ? axis : axisLength - axis;
+        double halfWidth = GOAL_WIDTH_RATIO * crossLength / 2;
+
+        return depthFromGoal >= 0 && depthFromGoal <= GOAL_DEPTH_RATIO * axisLength
+            && Math.abs(cross - crossLength / 2) <= halfWidth;
+    }
+
+    /**
+     * Draws the receive frame (or the shot frame, with the ball at its shot position)
+     * into the target, which is (re)allocated only when its size does not match.
+     */
+    public static void render(SyntheticScene scene, boolean isShot, Mat target) {
+        target.create(scene.height, scene.width, CvType.CV_8UC3);
+        target.setTo(BACKGROUND_COLOR);
+
+        drawPitch(target, scene.width, scene.height, scene.orientation);
+
+        for (Player player : scene.players) {
+            Imgproc.circle(target, player.position, scene.playerRadius,
+                player.isBlueTeam ? BLUE_PLAYER_COLOR : RED_PLAYER_COLOR, -1, Imgproc.LINE_AA);
+        }
+
+        Point ball = isShot ? scene.shotBallCenter : scene.ballCenter;
+        Imgproc.circle(target, ball, scene.ballRadius, BALL_COLOR, -1, Imgproc.LINE_AA);
+    }
+
+    public static Mat render(SyntheticScene scene, boolean isShot) {
+        Mat image = new Mat();
+        render(scene, isShot, image);
+        return image;
+    }
+
+    private static void drawPitch(Mat image, int width, int height, FieldOrientation orientation) {
+        int thickness = Math.max(1, (int) Math.round(Math.min(width, height) / 400.0));
+        boolean isHorizontal = orientation == FieldOrientation.HORIZONTAL;
+        double axisLength = getAxisLength(width, height, orientation);
+        double crossLength = getCrossLength(width, height, orientation);
+
+        // halfway line and centre circle
+        if (isHorizontal) {
+            Imgproc.line(image, new Point(width / 2.0, 0), new Point(width / 2.0, height), MARKING_COLOR, thickness);
+        } else {
+            Imgproc.line(image, new Point(0, height / 2.0), new Point(width, height / 2.0), MARKING_COLOR, thickness);
+        }
+        Imgproc.circle(image, new Point(width / 2.0, height / 2.0), (int) (0.12 * crossLength), MARKING_COLOR, thickness);
+
+        // goal frames: two posts from the goal line and the crossbar joining them
+        double depth = GOAL_DEPTH_RATIO * axisLength;
+        double halfWidth = GOAL_WIDTH_RATIO * crossLength / 2;
+        double center = crossLength / 2;
+
+        for (int end = 0; end < 2; end++) {
+            double goalLine = end == 0 ? 0 : axisLength;
+            double barLine = end == 0 ? depth : axisLength - depth;
+
+            Point post1Start = toImagePoint(goalLine, center - halfWidth, isHorizontal);
+            Point post1End = toImagePoint(barLine, center - halfWidth, isHorizontal);
+            Point post2Start = toImagePoint(goalLine, center + halfWidth, isHorizontal);
+            Point post2End = toImagePoint(barLine, center + halfWidth, isHorizontal);
+
+            Imgproc.line(image, post1Start, post1End, MARKING_COLOR, thickness);
+            Imgproc.line(image, post2Start, post2End, MARKING_COLOR, thickness);
+            Imgproc.line(image, post1End, post2End, MARKING_COLOR, thickness);
+        }
+    }
+
+    private Player addPlayer(List<Player> players, List<Point> taken, Point position, boolean isBlueTeam) {
+        Player player = new Player(position, isBlueTeam);
+        players.add(player);
+        taken.add(position);
+        return player;
+    }
+
+    /**
+     * Random free position with a depth in [minDepth, maxDepth], away from the goal frames
+     * and at least {@code spacing} pixels from every taken position when possible.
+     */
+    private Point place(List<Point> taken, double minDepth, double maxDepth, double spacing,
+    boolean isBlueAttacking, SceneConfig config)
+    {
+        Point candidate = null;
+        for (int attempt = 0; attempt < MAX_PLACEMENT_ATTEMPTS; attempt++) {
+            double depth = minDepth + (Math.max(minDepth, maxDepth) - minDepth) * random.nextDouble();
+            double cross = 0.08 + 0.84 * random.nextDouble();
+            candidate = toPoint(depth, cross, isBlueAttacking, config);
+
+            if (isFree(candidate, taken, spacing)) return candidate;
+        }
+        return candidate;
+    }
+
+    private static boolean isFree(Point candidate, List<Point> taken, double spacing) {
+        for (Point point : taken) {
+            if (Math.hypot(point.x - candidate.x, point.y - candidate.y) < spacing) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pitch point from a depth measured from the attacking team's own goal (0) towards the
+     * goal it attacks (1) and a relative position across the pitch.
+     */
+    static Point toPoint(double depth, double cross, boolean isBlueAttacking, SceneConfig config) {
+        boolean isHorizontal = config.orientation == FieldOrientation.HORIZONTAL;
+        double axisLength = getAxisLength(config.width, config.height, config.orientation);
+        double crossLength = getCrossLength(config.width, config.height, config.orientation);
+
+        // blue defends the 0 end of the axis, so blue attacks towards growing coordinates
+        double axis = Math.round((isBlueAttacking ? depth : 1 - depth) * axisLength);
+        return toImagePoint(axis, Math.round(cross * crossLength), isHorizontal);
+    }
+
+    static double toDepth(Point point, boolean isBlueAttacking, SceneConfig config) {
+        double axisLength = getAxisLength(config.width, config.height, config.orientation);
+        double axis = config.orientation == FieldOrientation.HORIZONTAL ? point.x : point.y;
+        return isBlueAttacking ? axis / axisLength : 1 - axis / axisLength;
+    }
+
+    static double toCross(Point point, SceneConfig config) {
+        double crossLength = getCrossLength(config.width, config.height, config.orientation);
+        return (config.orientation == FieldOrientation.HORIZONTAL ? point.y : point.x) / crossLength;
+    }
+
+    private static Point toImagePoint(double axis, double cross, boolean isHorizontal)
+    { return isHorizontal ? new Point(axis, cross) : new Point(cross, axis); }
+
+    static double getAxisLength(int width, int height, FieldOrientation orientation)
+    { return orientation == FieldOrientation.HORIZONTAL ? width : height; }
+
+    static double getCrossLength(int width, int height, FieldOrientation orientation)
+    { return orientation == FieldOrientation.HORIZONTAL ? height : width; }
+
+    public static String toJson(String id, SyntheticScene scene) {
+        return "{\"id\":" + JsonUtils.quote(id)
+            + ",\"offside\":" + scene.isOffside
+            + ",\"goal\":" + scene.isGoal
+            + ",\"orientation\":" + JsonUtils.quote(scene.orientation.name())
+            + ",\"attackingTeam\":" + (scene.isBlueAttacking() ? "\"blue\"" : "\"red\"")
+            + ",\"offsideLine\":" + JsonUtils.number(scene.offsideLine)
+            + ",\"ball\":" + JsonUtils.point(scene.ballCenter)
+            + ",\"shotBall\":" + JsonUtils.point(scene.shotBallCenter)
+            + ",\"players\":" + JsonUtils.players(scene.players)
+            + "}";
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: PitchSceneGenerator <output-directory> [options]");
+        System.err.println("  --count N              receive/shot pairs to write (default: 100)");
+        System.err.println("  --sequence N           write an N-frame video of moving players instead of pairs");
+        System.err.println("  --size WxH             resolution (default: 1920x1080)");
+        System.err.println("  --blue N / --red N     players per team (default: 11)");
+        System.err.println("  --orientation O        horizontal|vertical (default: horizontal)");
+        System.err.println("  --offside-ratio R      share of offside plays (default: 0.5)");
+        System.err.println("  --goal-ratio R         share of shots ending in the goal (default: 0.5)");
+        System.err.println("  --format jpg|png       still image format (default: png)");
+        System.err.println("  --seed S               random seed (default: 1)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            printUsage();
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[0]);
+        SceneConfig config = new SceneConfig();
+        int count = 100;
+        int sequenceLength = 0;
+        double offsideRatio = 0.5;
+        double goalRatio = 0.5;
+        String format = "png";
+        long seed = 1;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--count": count = Integer.parseInt(args[++i]); break;
+                case "--sequence": sequenceLength = Integer.parseInt(args[++i]); break;
+                case "--size":
+                    String[] size = args[++i].toLowerCase().split("x");
+                    config.width = Integer.parseInt(size[0]);
+                    config.height = Integer.parseInt(size[1]);
+                    break;
+                case "--blue": config.blueCount = Integer.parseInt(args[++i]); break;
+                case "--red": config.redCount = Integer.parseInt(args[++i]); break;
+                case "--orientation": config.orientation = FieldOrientation.valueOf(args[++i].toUpperCase()); break;
+                case "--offside-ratio": offsideRatio = Double.parseDouble(args[++i]); break;
+                case "--goal-ratio": goalRatio = Double.parseDouble(args[++i]); break;
+                case "--format": format = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        outputDirectory.mkdirs();
+        PitchSceneGenerator generator = new PitchSceneGenerator(seed);
+        Random choices = new Random(seed ^ 0x5DEECE66DL);
+        Mat frame = new Mat();
+
+        if (sequenceLength > 0) {
+            File video = new File(outputDirectory, "sequence.avi");
+            VideoWriter writer = new VideoWriter(video.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), 25,
+                new Size(config.width, config.height));
+            if (!writer.isOpened())
+            { throw new Exception("Failed to open video writer: " + video); }
+
+            config.isOffside = false;
+            SceneSequence sequence = new SceneSequence(generator.generate(config), seed);
+
+            try (Writer truth = new BufferedWriter(new FileWriter(new File(outputDirectory, "sequence-truth.jsonl"), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < sequenceLength; i++) {
+                    SyntheticScene scene = sequence.next();
+                    render(scene, false, frame);
+                    writer.write(frame);
+                    truth.write(toJson(String.valueOf(i), scene));
+                    truth.write('\n');
+                }
+            }
+
+            finally
+            { writer.release(); }
+
+            System.err.println("Wrote " + sequenceLength + " frames to " + video);
+            return;
+        }
+
+        try (Writer truth = new BufferedWriter(new FileWriter(new File(outputDirectory, "ground-truth.jsonl"), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < count; i++) {
+                config.isBlueAttacking = choices.nextBoolean();
+                config.isOffside = choices.nextDouble() < offsideRatio;
+                config.isGoal = choices.nextDouble() < goalRatio;
+
+                SyntheticScene scene = generator.generate(config);
+                String id = String.format("scene%06d", i);
+
+                render(scene, false, frame);
+                Imgcodecs.imwrite(new File(outputDirectory, id + "_receive." + format).getPath(), frame);
+                render(scene, true, frame);
+                Imgcodecs.imwrite(new File(outputDirectory, id + "_shot." + format).getPath(), frame);
+
+                truth.write(toJson(id, scene));
+                truth.write('\n');
+            }
+        }
+
+        System.err.println("Wrote " + count + " pairs to " + outputDirectory);
+    }
+}
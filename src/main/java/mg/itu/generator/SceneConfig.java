@@ -0,0 +1,43 @@
+package mg.itu.generator;
+
+import mg.itu.algo.Algo.FieldOrientation;
+
+/**
+ * What the generator should draw. Every scene built from the same config and seed is identical.
+ */
+public class SceneConfig {
+
+    public int width = 1920;
+    public int height = 1080;
+    public int blueCount = 11;
+    public int redCount = 11;
+    public FieldOrientation orientation = FieldOrientation.HORIZONTAL;
+
+    // requested ground truth
+    public boolean isBlueAttacking = true;
+    public boolean isOffside = false;
+    public boolean isGoal = false;
+
+    // 0 derives the radius from the resolution
+    public int playerRadius = 0;
+
+    public SceneConfig() {}
+
+    public SceneConfig(int width, int height, int blueCount, int redCount, FieldOrientation orientation) {
+        this.width = width;
+        this.height = height;
+        this.blueCount = blueCount;
+        this.redCount = redCount;
+        this.orientation = orientation;
+    }
+
+    public int getPlayerRadius() {
+        if (playerRadius > 0) return playerRadius;
+
+        // about the size of the hand-drawn circles, never below the detector's MIN_PLAYER_AREA
+        return Math.max(7, (int) Math.round(0.02 * Math.min(width, height)));
+    }
+
+    public int getBallRadius()
+    { return Math.max(4, (int) Math.round(getPlayerRadius() * 0.45)); }
+}
@@ -0,0 +1,138 @@
+package mg.itu.generator;
+
+import org.opencv.core.Point;
+
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Endless sequence of frames in which players drift smoothly around their start
+ * position, keep apart from each other and occasionally pass the ball to a teammate.
+ * The ground truth of every frame is recomputed from the exact positions.
+ */
+public class SceneSequence implements Iterator<SyntheticScene> {
+
+    // pixels per frame relative to the player radius
+    private static final double MAX_SPEED = 0.25;
+    private static final double ACCELERATION = 0.05;
+    private static final double PASS_PROBABILITY = 0.01;
+
+    private final Random random;
+    private final SyntheticScene start;
+    private final double[] x;
+    private final double[] y;
+    private final double[] velocityX;
+    private final double[] velocityY;
+    private final boolean[] isGoalkeeper;
+    private int carrier;
+
+    public SceneSequence(SyntheticScene start, long seed) {
+        this.random = new Random(seed);
+        this.start = start;
+
+        int count = start.players.size();
+        x = new double[count];
+        y = new double[count];
+        velocityX = new double[count];
+        velocityY = new double[count];
+        isGoalkeeper = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            Player player = start.players.get(i);
+            x[i] = player.position.x;
+            y[i] = player.position.y;
+            isGoalkeeper[i] = isNearOwnGoal(player);
+            if (player == start.playerWithBall) carrier = i;
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    { return true; }
+
+    @Override
+    public SyntheticScene next() {
+        double radius = start.playerRadius;
+        double maxSpeed = MAX_SPEED * radius;
+        int count = x.length;
+
+        for (int i = 0; i < count; i++) {
+            // goalkeepers barely move, outfield players wander
+            double limit = isGoalkeeper[i] ? maxSpeed * 0.2 : maxSpeed;
+            velocityX[i] = clamp(velocityX[i] + random.nextGaussian() * ACCELERATION * radius, -limit, limit);
+            velocityY[i] = clamp(velocityY[i] + random.nextGaussian() * ACCELERATION * radius, -limit, limit);
+
+            x[i] = clamp(x[i] + velocityX[i], 2 * radius, start.width - 2 * radius);
+            y[i] = clamp(y[i] + velocityY[i], 2 * radius, start.height - 2 * radius);
+        }
+
+        separate(3 * radius);
+
+        if (random.nextDouble() < PASS_PROBABILITY) {
+            List<Integer> teammates = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (i != carrier && !isGoalkeeper[i] && start.players.get(i).isBlueTeam == start.players.get(carrier).isBlueTeam)
+                { teammates.add(i); }
+            }
+            if (!teammates.isEmpty()) carrier = teammates.get(random.nextInt(teammates.size()));
+        }
+
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Player template = start.players.get(i);
+            players.add(new Player(new Point(Math.round(x[i]), Math.round(y[i])), template.isBlueTeam));
+        }
+
+        // the ball stays just ahead of its carrier, on the side of the goal it attacks
+        boolean isBlueCarrier = start.players.get(carrier).isBlueTeam;
+        double offset = (isBlueCarrier ? 1.7 : -1.7) * radius;
+        Point ballCenter = start.orientation == FieldOrientation.HORIZONTAL
+            ? new Point(Math.round(x[carrier] + offset), Math.round(y[carrier]))
+            : new Point(Math.round(x[carrier]), Math.round(y[carrier] + offset));
+
+        return PitchSceneGenerator.evaluate(start.width, start.height, start.orientation, start.playerRadius,
+            start.ballRadius, players, ballCenter, null);
+    }
+
+    /**
+     * Pushes overlapping players apart so every circle stays a separate blob.
+     */
+    private void separate(double spacing) {
+        for (int i = 0; i < x.length; i++) {
+            for (int j = i + 1; j < x.length; j++) {
+                double dx = x[j] - x[i];
+                double dy = y[j] - y[i];
+                double distance = Math.hypot(dx, dy);
+                if (distance >= spacing) continue;
+
+                if (distance < 1e-6) {
+                    dx = 1;
+                    dy = 0;
+                    distance = 1;
+                }
+
+                double push = (spacing - distance) / 2;
+                x[i] -= dx / distance * push;
+                y[i] -= dy / distance * push;
+                x[j] += dx / distance * push;
+                y[j] += dy / distance * push;
+            }
+        }
+    }
+
+    private boolean isNearOwnGoal(Player player) {
+        boolean isHorizontal = start.orientation == FieldOrientation.HORIZONTAL;
+        double axisLength = isHorizontal ? start.width : start.height;
+        double axis = isHorizontal ? player.position.x : player.position.y;
+        double depth = player.isBlueTeam ? axis / axisLength : 1 - axis / axisLength;
+        return depth < 0.06;
+    }
+
+    private static double clamp(double value, double min, double max)
+    { return Math.max(min, Math.min(max, value)); }
+}
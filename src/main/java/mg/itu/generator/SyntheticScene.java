@@ -0,0 +1,52 @@
+package mg.itu.generator;
+
+import org.opencv.core.Point;
+
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.entity.Player;
+
+import java.util.List;
+
+/**
+ * Exact positions of a generated scene and its ground truth, computed from those
+ * positions rather than from detections.
+ */
+public class SyntheticScene {
+
+    public final int width;
+    public final int height;
+    public final FieldOrientation orientation;
+    public final int playerRadius;
+    public final int ballRadius;
+
+    public final List<Player> players;
+    public final Point ballCenter;
+    public final Point shotBallCenter;
+
+    // ground truth
+    public final Player playerWithBall;
+    public final double offsideLine;
+    public final boolean isOffside;
+    public final boolean isGoal;
+
+    public SyntheticScene(int width, int height, FieldOrientation orientation, int playerRadius, int ballRadius,
+    List<Player> players, Point ballCenter, Point shotBallCenter, 
+    Player playerWithBall, double offsideLine, boolean isOffside, boolean isGoal) 
+    {
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.playerRadius = playerRadius;
+        this.ballRadius = ballRadius;
+        this.players = players;
+        this.ballCenter = ballCenter;
+        this.shotBallCenter = shotBallCenter;
+        this.playerWithBall = playerWithBall;
+        this.offsideLine = offsideLine;
+        this.isOffside = isOffside;
+        this.isGoal = isGoal;
+    }
+
+    public boolean isBlueAttacking()
+    { return playerWithBall != null && playerWithBall.isBlueTeam; }
+}
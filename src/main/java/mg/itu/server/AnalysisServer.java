@@ -0,0 +1,494 @@
+package mg.itu.server;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.Algo.AnalysisResult;
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.algo.FrameContext;
+import mg.itu.algo.OffsideDecision;
+import mg.itu.algo.PipelineMetrics;
+import mg.itu.algo.StageTimings;
+import mg.itu.entity.KitConfiguration;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.GoalCache;
+import mg.itu.utils.JsonUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP service running the offside pipeline on uploaded frames, for tools that
+ * cannot drive the Swing app:
+ * <pre>
+ * POST /analyze?orientation=horizontal&amp;reversed=false
+ *     multipart/form-data with a "receive" and a "shot" image: verdict of the play
+ *     raw image body: offside verdict of that receive frame alone
+ * GET /health
+ * GET /metrics
+ *     latency percentiles of every pipeline stage and native bytes, see {@link PipelineMetrics}
+ * </pre>
+ *
+ * Connections are served on virtual threads, which only read uploads and wait. Decoding
+ * and analysis run on a fixed pool of one thread per core behind a bounded queue: a
+ * request finding the queue full is answered 429 at once instead of piling up frames,
+ * so a burst can neither oversubscribe the cores nor hold more than a pool's worth of
+ * decoded frames in native memory. Requests arriving while the server stops get 503.
+ */
+public class AnalysisServer {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_UPLOAD_BYTES = 64 << 20;
+    // largest limit in MB still below Integer.MAX_VALUE bytes
+    private static final int MAX_UPLOAD_MB = 2047;
+
+    // seconds a rejected client is told to wait before retrying
+    private static final String RETRY_AFTER = "1";
+
+    private final HttpServer server;
+    private final ExecutorService connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ThreadPoolExecutor analysisExecutor;
+    private final ColorClassifier classifier;
+    private int pyramidFactor = 1;
+    private int maxUploadBytes = DEFAULT_MAX_UPLOAD_BYTES;
+    private GoalCache goalCache;
+    private volatile boolean isStopping;
+
+    private final AtomicLong analyzedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param threads analyses running at once, one per core is enough: they are CPU-bound
+     * @param queueCapacity analyses waiting for a thread before requests are rejected
+     */
+    public AnalysisServer(InetSocketAddress address, int threads, int queueCapacity, ColorClassifier classifier)
+        throws IOException
+    {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+
+        this.classifier = classifier;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.analysisExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> new Thread(runnable, "analysis-" + threadIndex.incrementAndGet()),
+            new ThreadPoolExecutor.AbortPolicy());
+
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(connectionExecutor);
+        server.createContext("/analyze", this::handleAnalyze);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void setPyramidFactor(int pyramidFactor)
+    { this.pyramidFactor = pyramidFactor; }
+
+    public void setMaxUploadBytes(int maxUploadBytes)
+    { this.maxUploadBytes = maxUploadBytes; }
+
+    /**
+     * @param goalCache shared by every request when all shots come from one fixed camera, null otherwise
+     */
+    public void setGoalCache(GoalCache goalCache)
+    { this.goalCache = goalCache; }
+
+    public void start() {
+        // the pool already uses every core, keep OpenCV from spawning its own threads on top
+        Core.setNumThreads(1);
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and lets the running and queued analyses answer, for at most
+     * the given delay.
+     */
+    public void stop(int delaySeconds) throws InterruptedException {
+        isStopping = true;
+        server.stop(delaySeconds);
+        analysisExecutor.shutdown();
+        analysisExecutor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        connectionExecutor.shutdown();
+    }
+
+    public InetSocketAddress getAddress()
+    { return server.getAddress(); }
+
+    private void handleAnalyze(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Use POST"));
+                return;
+            }
+
+            if (isStopping) {
+                send(exchange, 503, error("Server is stopping"));
+                return;
+            }
+
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            FieldOrientation orientation = FieldOrientation.valueOf(query.getOrDefault("orientation", "horizontal").toUpperCase());
+            boolean isReversedOrientation = Boolean.parseBoolean(query.getOrDefault("reversed", "false"));
+
+            // a full queue rejects before the upload is read, a burst must not pile up bodies either
+            if (analysisExecutor.getQueue().remainingCapacity() == 0) {
+                reject(exchange);
+                return;
+            }
+
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                send(exchange, 413, error("Upload larger than " + maxUploadBytes + " bytes"));
+                return;
+            }
+
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] receiveImage;
+            byte[] shotImage;
+            if (contentType != null && contentType.toLowerCase().startsWith("multipart/form-data")) {
+                Map<String, byte[]> parts = parseMultipart(body, getBoundary(contentType));
+                receiveImage = parts.get("receive");
+                shotImage = parts.containsKey("shot") ? parts.get("shot") : parts.get("shoot");
+                if (receiveImage == null || shotImage == null) {
+                    send(exchange, 400, error("Expected a \"receive\" and a \"shot\" part"));
+                    return;
+                }
+            }
+
+            else {
+                receiveImage = body;
+                shotImage = null;
+            }
+
+            // only the compressed upload waits in the queue, frames are decoded once a thread is free
+            Future<String> verdict;
+            try
+            { verdict = analysisExecutor.submit(() -> analyze(receiveImage, shotImage, isReversedOrientation, orientation)); }
+
+            // the queue filled up while the upload was read
+            catch (RejectedExecutionException e) {
+                reject(exchange);
+                return;
+            }
+
+            send(exchange, 200, verdict.get());
+            analyzedCount.incrementAndGet();
+        }
+
+        catch (ExecutionException e) {
+            failedCount.incrementAndGet();
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalArgumentException) send(exchange, 400, error(cause.getMessage()));
+            else send(exchange, 500, error(String.valueOf(cause.getMessage())));
+        }
+
+        catch (IllegalArgumentException e) {
+            failedCount.incrementAndGet();
+            send(exchange, 400, error(e.getMessage()));
+        }
+
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("Server is stopping"));
+        }
+
+        finally
+        { exchange.close(); }
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        rejectedCount.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER);
+        if (analysisExecutor.isShutdown()) send(exchange, 503, error("Server is stopping"));
+        else send(exchange, 429, error("Too many analyses queued"));
+    }
+
+    /**
+     * Runs on the analysis pool: decodes the uploads and analyzes them, a play when both
+     * frames were sent, the offside rules on the receive frame otherwise.
+     */
+    private String analyze(byte[] receiveImage, byte[] shotImage, boolean isReversedOrientation, FieldOrientation orientation)
+        throws Exception
+    {
+        StageTimings decodeTimings = new StageTimings();
+        long start = System.nanoTime();
+        try (FrameContext receiveFrame = new FrameContext(decode(receiveImage, "receive"))) {
+            decodeTimings.record("receive.decode", start);
+            receiveFrame.setClassifier(classifier);
+            receiveFrame.setPyramidFactor(pyramidFactor);
+
+            if (shotImage == null) {
+                StageTimings timings = new StageTimings();
+                OffsideDecision decision = Algo.evaluateOffside(receiveFrame, isReversedOrientation, orientation, timings);
+
+                AnalysisResult result = new AnalysisResult(decision.isOffside(), false,
+                    decision.isOffside() ? "Offside!" : "No offside.");
+                result.decision = decision;
+                result.timings = decodeTimings;
+                result.timings.merge(timings);
+                return JsonUtils.toJson(result);
+            }
+
+            start = System.nanoTime();
+            try (FrameContext shotFrame = new FrameContext(decode(shotImage, "shot"))) {
+                decodeTimings.record("shot.decode", start);
+                shotFrame.setClassifier(classifier);
+                shotFrame.setPyramidFactor(pyramidFactor);
+
+                // requests are independent plays, scored by no session
+                AnalysisResult result = Algo.analyzePlay(receiveFrame, shotFrame, isReversedOrientation, orientation, false, goalCache);
+                decodeTimings.merge(result.timings);
+                result.timings = decodeTimings;
+                return JsonUtils.toJson(result);
+            }
+        }
+    }
+
+    private static Mat decode(byte[] image, String name) {
+        MatOfByte encoded = new MatOfByte(image);
+        try {
+            Mat bgr = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+            if (bgr.empty()) {
+                bgr.release();
+                throw new IllegalArgumentException("The " + name + " frame is not a readable image");
+            }
+            return bgr;
+        }
+
+        finally
+        { encoded.release(); }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            String health = "{\"status\":" + (isStopping ? "\"stopping\"" : "\"ok\"")
+                + ",\"running\":" + analysisExecutor.getActiveCount()
+                + ",\"queued\":" + analysisExecutor.getQueue().size()
+                + ",\"threads\":" + analysisExecutor.getMaximumPoolSize()
+                + ",\"analyzed\":" + analyzedCount.get()
+                + ",\"rejected\":" + rejectedCount.get()
+                + ",\"failed\":" + failedCount.get() + "}";
+            send(exchange, 200, health);
+        }
+
+        finally
+        { exchange.close(); }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try
+        { send(exchange, 200, JsonUtils.metrics(PipelineMetrics.snapshot())); }
+
+        finally
+        { exchange.close(); }
+    }
+
+    /**
+     * The request body, null when it is over the upload limit.
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length) > maxUploadBytes) return null;
+
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] body = input.readNBytes(maxUploadBytes + 1);
+            return body.length > maxUploadBytes ? null : body;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody())
+        { output.write(bytes); }
+    }
+
+    private static String error(String message)
+    { return "{\"error\":" + JsonUtils.quote(message) + "}"; }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) return parameters;
+
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String getBoundary(String contentType) {
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (!trimmed.toLowerCase().startsWith("boundary=")) continue;
+
+            String boundary = trimmed.substring("boundary=".length());
+            if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\""))
+            { boundary = boundary.substring(1, boundary.length() - 1); }
+            return boundary;
+        }
+        throw new IllegalArgumentException("Multipart upload without a boundary");
+    }
+
+    /**
+     * Contents of the named parts of a multipart/form-data body.
+     */
+    private static Map<String, byte[]> parseMultipart(byte[] body, String boundary) {
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        Map<String, byte[]> parts = new HashMap<>();
+
+        int position = indexOf(body, delimiter, 0);
+        if (position < 0) throw new IllegalArgumentException("Malformed multipart upload");
+
+        while (true) {
+            int partStart = position + delimiter.length;
+            // the closing delimiter is followed by "--"
+            if (partStart + 1 < body.length && body[partStart] == '-' && body[partStart + 1] == '-') break;
+
+            int next = indexOf(body, delimiter, partStart);
+            int headersEnd = indexOf(body, headerEnd, partStart);
+            if (next < 0 || headersEnd < 0 || headersEnd > next) throw new IllegalArgumentException("Malformed multipart upload");
+
+            String headers = new String(body, partStart, headersEnd - partStart, StandardCharsets.ISO_8859_1);
+            String name = getPartName(headers);
+            // the content ends with the line break before the next delimiter
+            int contentStart = headersEnd + headerEnd.length;
+            int contentEnd = Math.max(contentStart, next - 2);
+            if (name != null) parts.put(name, Arrays.copyOfRange(body, contentStart, contentEnd));
+
+            position = next;
+        }
+
+        return parts;
+    }
+
+    private static String getPartName(String headers) {
+        for (String header : headers.split("\r\n")) {
+            if (!header.toLowerCase().startsWith("content-disposition:")) continue;
+
+            for (String parameter : header.split(";")) {
+                String trimmed = parameter.trim();
+                if (trimmed.startsWith("name=")) return trimmed.substring("name=".length()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public long getAnalyzedCount()
+    { return analyzedCount.get(); }
+
+    public long getRejectedCount()
+    { return rejectedCount.get(); }
+
+    public long getFailedCount()
+    { return failedCount.get(); }
+
+    private static void printUsage() {
+        System.err.println("Usage: AnalysisServer [options]");
+        System.err.println("  --port N                           listening port (default: " + DEFAULT_PORT + ")");
+        System.err.println("  --bind ADDRESS                     listening address (default: 127.0.0.1)");
+        System.err.println("  --threads N                        analyses running at once (default: available cores)");
+        System.err.println("  --queue N                          analyses waiting before requests get 429 (default: 2 per thread)");
+        System.err.println("  --max-upload-mb N                  largest request body (default: 64, at most 2047)");
+        System.err.println("  --kit FILE                         kit and ball colours (HSV ranges, see KitConfiguration)");
+        System.err.println("  --pyramid auto|N                   detect on a level shrunk N times, refine at full resolution");
+        System.err.println("  --fixed-camera                     every shot comes from the same camera, reuse its goals");
+        System.err.println("  --metrics N                        print stage latency percentiles every N seconds");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        String bindAddress = "127.0.0.1";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = 0;
+        int maxUploadBytes = DEFAULT_MAX_UPLOAD_BYTES;
+        KitConfiguration kit = KitConfiguration.DEFAULT;
+        int pyramidFactor = 1;
+        boolean isFixedCamera = false;
+        int metricsInterval = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--bind": bindAddress = args[++i]; break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--queue": queueCapacity = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--max-upload-mb": maxUploadBytes = Math.min(MAX_UPLOAD_MB, Math.max(1, Integer.parseInt(args[++i]))) << 20; break;
+                case "--kit": kit = KitConfiguration.load(args[++i]); break;
+                case "--pyramid": i++; pyramidFactor = args[i].equals("auto") ? 0 : Math.max(1, Integer.parseInt(args[i])); break;
+                case "--fixed-camera": isFixedCamera = true; break;
+                case "--metrics": metricsInterval = Math.max(1, Integer.parseInt(args[++i])); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        if (queueCapacity == 0) queueCapacity = threads * 2;
+
+        AnalysisServer server = new AnalysisServer(new InetSocketAddress(bindAddress, port), threads, queueCapacity,
+            ColorClassifier.forKit(kit));
+        server.setPyramidFactor(pyramidFactor);
+        server.setMaxUploadBytes(maxUploadBytes);
+        if (isFixedCamera) server.setGoalCache(new GoalCache());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try
+            { server.stop(5); }
+
+            catch (InterruptedException e)
+            { Thread.currentThread().interrupt(); }
+        }));
+
+        if (metricsInterval > 0) PipelineMetrics.startReporting(metricsInterval, System.err);
+        server.start();
+        System.err.printf("Listening on http://%s:%d/analyze with %d analysis threads, %d queued at most%n",
+            bindAddress, server.getAddress().getPort(), threads, queueCapacity);
+    }
+}
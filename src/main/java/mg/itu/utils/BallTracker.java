@@ -0,0 +1,171 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import mg.itu.algo.FrameContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows the ball of a video from frame to frame. Its next position is predicted from
+ * its last motion and only a small window around the prediction is segmented; the whole
+ * frame is searched again when the ball is not in the window (kicked harder than predicted,
+ * hidden by a player) and until it is found again.
+ *
+ * Keeps the state of one video: feed it the frames in order, from one thread.
+ */
+public class BallTracker {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // pixels searched around the ball's box, plus the distance it may have gained on its prediction
+    private static final int SEARCH_MARGIN = 16;
+    // share of the last speed the ball may gain or lose between two frames
+    private static final double SPEED_TOLERANCE = 0.5;
+
+    private boolean isFound;
+    private double x;
+    private double y;
+    private double velocityX;
+    private double velocityY;
+    private int size;
+    private int width;
+    private int height;
+
+    private long windowCount;
+    private long fullFrameCount;
+
+    /**
+     * Ball of the next frame of the video, null when neither the window nor the whole frame
+     * has it. It is also set as the ball of the frame, so that the analysis of the frame does
+     * not detect it again.
+     */
+    public Point track(FrameContext frame) throws Exception {
+        Mat bgr = frame.getBgr();
+
+        // another video or another camera, nothing to follow
+        if (bgr.cols() != width || bgr.rows() != height) {
+            width = bgr.cols();
+            height = bgr.rows();
+            isFound = false;
+        }
+
+        Point ball = null;
+        if (isFound) {
+            double speed = Math.hypot(velocityX, velocityY);
+            int radius = (int) Math.ceil(Math.max(size, SEARCH_MARGIN) + SEARCH_MARGIN + speed * SPEED_TOLERANCE);
+            ball = search(bgr, frame.getClassifier(), x + velocityX, y + velocityY, radius);
+            windowCount++;
+
+            if (ball != null) frame.setBallCenter(ball);
+        }
+
+        if (ball == null) {
+            ball = frame.getBallCenter();
+            fullFrameCount++;
+
+            if (ball == null) {
+                isFound = false;
+                return null;
+            }
+
+            // the full-frame detection gives no box, the next window must still fit the ball
+            learnSize(bgr, frame.getClassifier(), ball);
+        }
+
+        // motion since the previous frame, none when the ball was just found again
+        velocityX = isFound ? ball.x - x : 0;
+        velocityY = isFound ? ball.y - y : 0;
+
+        x = ball.x;
+        y = ball.y;
+        isFound = true;
+        return ball;
+    }
+
+    /**
+     * Measures the ball found on the whole frame in windows around it, doubled until one
+     * holds it whole, so that a ball larger than the default window is not cut on every
+     * following frame.
+     */
+    private void learnSize(Mat bgr, ColorClassifier classifier, Point ball) {
+        int maxRadius = Math.max(bgr.cols(), bgr.rows());
+        for (int radius = Math.max(size, SEARCH_MARGIN) + SEARCH_MARGIN; radius <= maxRadius; radius *= 2) {
+            if (search(bgr, classifier, ball.x, ball.y, radius) != null) return;
+            // nothing cut by this window either, there is nothing to measure
+            if (size < 2 * radius) return;
+        }
+    }
+
+    /**
+     * Best ball contour in the window of the given radius around the centre, null when there
+     * is none or when the window cuts it: a ball on the window's edge is searched on the whole
+     * frame, and the window is remembered as too small for it.
+     */
+    private Point search(Mat bgr, ColorClassifier classifier, double centerX, double centerY, int radius) {
+        int left = Math.max(0, (int) centerX - radius);
+        int top = Math.max(0, (int) centerY - radius);
+        int right = Math.min(bgr.cols(), (int) centerX + radius + 1);
+        int bottom = Math.min(bgr.rows(), (int) centerY + radius + 1);
+        if (right <= left || bottom <= top) return null;
+
+        Rect window = new Rect(left, top, right - left, bottom - top);
+
+        try (MatScope scope = new MatScope()) {
+            Mat roi = scope.track(bgr.submat(window));
+            Mat windowLabels = scope.track(new Mat());
+            Mat ballMask = scope.track(new Mat());
+            classifier.classify(roi, windowLabels);
+            Core.compare(windowLabels, new Scalar(ColorClassifier.BALL), ballMask, Core.CMP_EQ);
+
+            List<MatOfPoint> contours = new ArrayList<>();
+            Mat hierarchy = scope.track(new Mat());
+            Imgproc.findContours(ballMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            scope.trackAll(contours);
+
+            int ball = ImageProcessingUtils.findBestBallContour(contours);
+            if (ball < 0) return null;
+
+            Rect box = Imgproc.boundingRect(contours.get(ball));
+            if ((box.x == 0 && window.x > 0)
+                || (box.y == 0 && window.y > 0)
+                || (box.x + box.width == window.width && window.x + window.width < bgr.cols())
+                || (box.y + box.height == window.height && window.y + window.height < bgr.rows()))
+            {
+                // the ball goes on past the window, it is at least as wide
+                size = Math.max(size, 2 * radius);
+                return null;
+            }
+
+            size = Math.max(box.width, box.height);
+
+            // same moments as the full-frame detection, shifted by the window offset
+            Moments moments = Imgproc.moments(contours.get(ball));
+            int ballX = (int) (moments.m10 / moments.m00 + window.x);
+            int ballY = (int) (moments.m01 / moments.m00 + window.y);
+            return new Point(ballX, ballY);
+        }
+    }
+
+    /**
+     * Forgets the ball, the next frame is searched whole.
+     */
+    public void reset()
+    { isFound = false; }
+
+    public long getWindowCount()
+    { return windowCount; }
+
+    public long getFullFrameCount()
+    { return fullFrameCount; }
+}
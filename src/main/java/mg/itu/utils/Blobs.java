@@ -0,0 +1,32 @@
+package mg.itu.utils;
+
+/**
+ * Connected blobs of a binary mask kept in flat primitive arrays:
+ * blob {@code i} has its centroid at ({@code centroidX[i]}, {@code centroidY[i]})
+ * and covers {@code area[i]} pixels of its bounding box ({@code left[i]}, {@code top[i]},
+ * {@code width[i]}, {@code height[i]}). Only the first {@code count} entries are used.
+ */
+public class Blobs {
+
+    public final int count;
+    public final double[] centroidX;
+    public final double[] centroidY;
+    public final int[] area;
+    public final int[] left;
+    public final int[] top;
+    public final int[] width;
+    public final int[] height;
+
+    public Blobs(int count, double[] centroidX, double[] centroidY, int[] area,
+    int[] left, int[] top, int[] width, int[] height)
+    {
+        this.count = count;
+        this.centroidX = centroidX;
+        this.centroidY = centroidY;
+        this.area = area;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,137 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import mg.itu.entity.KitConfiguration;
+import mg.itu.entity.KitConfiguration.HsvRange;
+
+import java.util.List;
+
+/**
+ * Labels every pixel of a BGR frame as blue kit, red kit, ball or background in one pass,
+ * through a lookup table indexed by the quantised BGR colour.
+ *
+ * The table is built once per kit configuration by running the HSV ranges on the colour
+ * of every cell, so the frames themselves are never converted to HSV nor thresholded
+ * once per range. When ranges overlap, blue wins over red and red over the ball.
+ */
+public class ColorClassifier {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final byte BACKGROUND = 0;
+    public static final byte BLUE = 1;
+    public static final byte RED = 2;
+    public static final byte BALL = 3;
+
+    // 6 bits per channel: a 256 KB table that stays in cache, colours off by at most 2 levels
+    public static final int DEFAULT_BITS_PER_CHANNEL = 6;
+
+    public static final ColorClassifier DEFAULT = new ColorClassifier(KitConfiguration.DEFAULT);
+
+    private final KitConfiguration kit;
+    private final int bits;
+    private final int shift;
+    private final byte[] table;
+
+    public ColorClassifier(KitConfiguration kit)
+    { this(kit, DEFAULT_BITS_PER_CHANNEL); }
+
+    public ColorClassifier(KitConfiguration kit, int bitsPerChannel) {
+        if (bitsPerChannel < 1 || bitsPerChannel > 8)
+        { throw new IllegalArgumentException("Bits per channel must be within 1..8: " + bitsPerChannel); }
+
+        this.kit = kit;
+        this.bits = bitsPerChannel;
+        this.shift = 8 - bitsPerChannel;
+        this.table = buildTable();
+    }
+
+    /**
+     * Classifier of the kit, the shared default one when the kit is the default.
+     * Building a table takes tens of milliseconds, do it once per match rather than per frame.
+     */
+    public static ColorClassifier forKit(KitConfiguration kit)
+    { return kit == KitConfiguration.DEFAULT ? DEFAULT : new ColorClassifier(kit); }
+
+    public KitConfiguration getKit()
+    { return kit; }
+
+    private byte[] buildTable() {
+        int levels = 1 << bits;
+        int cells = levels * levels * levels;
+        int halfStep = (1 << shift) / 2;
+
+        // one pixel per cell, at the centre of the colour cube it stands for
+        byte[] colors = new byte[cells * 3];
+        for (int index = 0; index < cells; index++) {
+            colors[index * 3] = (byte) (((index >> (2 * bits)) << shift) + halfStep);
+            colors[index * 3 + 1] = (byte) ((((index >> bits) & (levels - 1)) << shift) + halfStep);
+            colors[index * 3 + 2] = (byte) (((index & (levels - 1)) << shift) + halfStep);
+        }
+
+        byte[] labels = new byte[cells];
+        try (MatScope scope = new MatScope()) {
+            Mat bgr = scope.track(new Mat(1, cells, CvType.CV_8UC3));
+            bgr.put(0, 0, colors);
+
+            Mat hsv = scope.track(new Mat());
+            Imgproc.cvtColor(bgr, hsv, Imgproc.COLOR_BGR2HSV);
+
+            // lowest precedence first, later labels overwrite
+            Mat mask = scope.track(new Mat());
+            byte[] maskData = new byte[cells];
+            label(hsv, kit.ballRanges, BALL, mask, maskData, labels);
+            label(hsv, kit.redRanges, RED, mask, maskData, labels);
+            label(hsv, kit.blueRanges, BLUE, mask, maskData, labels);
+        }
+
+        return labels;
+    }
+
+    private static void label(Mat hsv, List<HsvRange> ranges, byte label, Mat mask, byte[] maskData, byte[] labels) {
+        for (HsvRange range : ranges) {
+            Core.inRange(hsv, range.min, range.max, mask);
+            mask.get(0, 0, maskData);
+
+            for (int i = 0; i < labels.length; i++) {
+                if (maskData[i] != 0) labels[i] = label;
+            }
+        }
+    }
+
+    /**
+     * Writes the label of every pixel of the 8-bit BGR image into {@code labels},
+     * an 8-bit single channel Mat of the same size.
+     */
+    public void classify(Mat bgr, Mat labels) {
+        if (bgr.type() != CvType.CV_8UC3)
+        { throw new IllegalArgumentException("Expected an 8-bit BGR image: " + CvType.typeToString(bgr.type())); }
+
+        labels.create(bgr.rows(), bgr.cols(), CvType.CV_8UC1);
+
+        int cols = bgr.cols();
+        int doubleBits = 2 * bits;
+        byte[] row = new byte[cols * 3];
+        byte[] labelRow = new byte[cols];
+
+        // one row at a time keeps both buffers small and in cache
+        for (int y = 0; y < bgr.rows(); y++) {
+            bgr.get(y, 0, row);
+
+            for (int x = 0, i = 0; x < cols; x++, i += 3) {
+                int b = (row[i] & 0xFF) >> shift;
+                int g = (row[i + 1] & 0xFF) >> shift;
+                int r = (row[i + 2] & 0xFF) >> shift;
+                labelRow[x] = table[(b << doubleBits) | (g << bits) | r];
+            }
+
+            labels.put(y, 0, labelRow);
+        }
+    }
+}
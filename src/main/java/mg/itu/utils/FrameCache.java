@@ -0,0 +1,158 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Range;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import mg.itu.algo.PipelineMetrics;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded images of the process, so that a file analyzed again (the operator toggling the
+ * orientation or the side, a shot shared by several plays of a batch) is not decoded again.
+ * Frames are keyed by path, modification time and length, so a file rewritten in place is
+ * decoded anew, and kept within a budget of native bytes, least recently used first out.
+ *
+ * Callers get their own header on the cached pixels and release it when done: OpenCV only
+ * frees the pixels once the cache and every caller have released theirs, so evicting a frame
+ * still being analyzed is safe. The pixels are shared, callers must not draw on them.
+ */
+public class FrameCache {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    // the cache behind every frame read from a path
+    public static final FrameCache SHARED = new FrameCache(DEFAULT_MAX_BYTES);
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final Mat image;
+        final long bytes;
+
+        Entry(long lastModified, long length, Mat image) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.image = image;
+            this.bytes = image.total() * image.elemSize();
+        }
+    }
+
+    // access-ordered so the first entry is the least recently used frame
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public FrameCache(long maxBytes)
+    { this.maxBytes = maxBytes; }
+
+    /**
+     * Decoded image of the file, from the cache while the file is unchanged, or an empty
+     * Mat when the file cannot be decoded. The caller owns the returned Mat and releases it.
+     */
+    public Mat read(String imagePath) {
+        File file = new File(imagePath);
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                hitCount++;
+                return share(entry.image);
+            }
+            missCount++;
+        }
+
+        // decoded outside the lock, two threads reading the same file both decode it
+        long start = System.nanoTime();
+        Mat image = Imgcodecs.imread(imagePath);
+        if (image.empty()) return image;
+        PipelineMetrics.record("decode", start);
+
+        // shared before caching, a frame over the whole budget is evicted as soon as cached
+        Mat shared = share(image);
+        put(key, new Entry(lastModified, length, image));
+        return shared;
+    }
+
+    // a new header on the same pixels, which keeps them alive until released
+    private static Mat share(Mat image)
+    { return new Mat(image, Range.all(), Range.all()); }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null) {
+            bytes -= replaced.bytes;
+            replaced.image.release();
+        }
+        bytes += entry.bytes;
+
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry evicted = iterator.next().getValue();
+            bytes -= evicted.bytes;
+            evicted.image.release();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Changes the budget, evicting frames right away when it shrinks. 0 disables the cache.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Releases every cached frame, the counters are kept.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) entry.image.release();
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getMaxBytes()
+    { return maxBytes; }
+
+    public synchronized long getBytes()
+    { return bytes; }
+
+    public synchronized int size()
+    { return entries.size(); }
+
+    public synchronized long getHitCount()
+    { return hitCount; }
+
+    public synchronized long getMissCount()
+    { return missCount; }
+
+    public synchronized long getEvictionCount()
+    { return evictionCount; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d frames, %.1f/%.1f MB, %d hits, %d misses, %d evictions",
+            entries.size(), bytes / 1048576.0, maxBytes / 1048576.0, hitCount, missCount, evictionCount);
+    }
+}
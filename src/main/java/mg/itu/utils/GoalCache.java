@@ -0,0 +1,195 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import mg.itu.algo.FrameContext;
+import mg.itu.utils.GoalCageUtils.Goal;
+import mg.itu.utils.GoalCageUtils.Line;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Goals of one fixed (or slowly moving) camera. Instead of a full line detection on every
+ * shot frame, the cached posts and crossbars are checked against the new frame by sampling
+ * the image across each line: as long as the lines still sit on edges, the goals have not
+ * moved. The full detection runs again when a line loses its edge or the frame size changes.
+ *
+ * Safe to share between threads, keep one per camera (or per match session).
+ */
+public class GoalCache {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // one probe every few pixels along a line
+    private static final double SAMPLE_STEP = 4;
+    // probes look up to this far on both sides of the line, enough for a thick post
+    private static final int PROBE_REACH = 4;
+    // gray levels between the line and one side for a probe to count as an edge
+    private static final int MIN_EDGE_CONTRAST = 40;
+    // lines with less support than this when detected are not worth caching
+    private static final double MIN_EDGE_SUPPORT = 0.5;
+    // share of the support at detection time a line must keep to stay valid
+    private static final double MIN_SUPPORT_RETAINED = 0.8;
+
+    private static class Entry {
+        final int width;
+        final int height;
+        final List<Goal> goals;
+        final double[] support;
+
+        Entry(int width, int height, List<Goal> goals, double[] support) {
+            this.width = width;
+            this.height = height;
+            this.goals = goals;
+            this.support = support;
+        }
+    }
+
+    private final AtomicReference<Entry> entry = new AtomicReference<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Goals of the frame, from the cache when they still match the frame.
+     * The returned goals are copies the caller may modify.
+     */
+    public List<Goal> detect(FrameContext frame) throws Exception {
+        Mat bgr = frame.getBgr();
+        Entry cached = entry.get();
+
+        if (cached != null && cached.width == bgr.cols() && cached.height == bgr.rows() && isStillValid(bgr, cached)) {
+            hitCount.incrementAndGet();
+            return copy(cached.goals);
+        }
+
+        missCount.incrementAndGet();
+        List<Goal> goals = GoalCageUtils.detectGoal(frame, null);
+
+        // nothing to validate against when no goal was found, detect again next time
+        double[] support = measureSupport(bgr, goals);
+        boolean isCacheable = !goals.isEmpty();
+        for (double lineSupport : support) {
+            if (lineSupport < MIN_EDGE_SUPPORT) isCacheable = false;
+        }
+
+        entry.set(isCacheable ? new Entry(bgr.cols(), bgr.rows(), copy(goals), support) : null);
+        return goals;
+    }
+
+    public void invalidate()
+    { entry.set(null); }
+
+    public long getHitCount()
+    { return hitCount.get(); }
+
+    public long getMissCount()
+    { return missCount.get(); }
+
+    private static boolean isStillValid(Mat bgr, Entry cached) {
+        double[] support = measureSupport(bgr, cached.goals);
+        for (int i = 0; i < support.length; i++) {
+            if (support[i] < Math.max(MIN_EDGE_SUPPORT, cached.support[i] * MIN_SUPPORT_RETAINED)) return false;
+        }
+        return true;
+    }
+
+    // post1, post2 and crossbar of every goal, in that order
+    private static double[] measureSupport(Mat bgr, List<Goal> goals) {
+        double[] support = new double[goals.size() * 3];
+        for (int i = 0; i < goals.size(); i++) {
+            Goal goal = goals.get(i);
+            support[i * 3] = measureSupport(bgr, goal.post1);
+            support[i * 3 + 1] = measureSupport(bgr, goal.post2);
+            support[i * 3 + 2] = measureSupport(bgr, goal.crossbar);
+        }
+        return support;
+    }
+
+    /**
+     * Share of the probes along the line that see an edge or a thin line: the pixel on
+     * the line differs from a pixel on one side of it by at least {@link #MIN_EDGE_CONTRAST}.
+     * Only the bounding box of the line is converted to gray and copied out, in one go.
+     */
+    private static double measureSupport(Mat bgr, Line line) {
+        double length = line.length();
+        if (length < 1) return 0;
+
+        int margin = PROBE_REACH + 1;
+        int left = (int) Math.max(0, Math.floor(Math.min(line.x1, line.x2)) - margin);
+        int top = (int) Math.max(0, Math.floor(Math.min(line.y1, line.y2)) - margin);
+        int right = (int) Math.min(bgr.cols(), Math.ceil(Math.max(line.x1, line.x2)) + margin + 1);
+        int bottom = (int) Math.min(bgr.rows(), Math.ceil(Math.max(line.y1, line.y2)) + margin + 1);
+        if (right <= left || bottom <= top) return 0;
+
+        Rect box = new Rect(left, top, right - left, bottom - top);
+        byte[] pixels = new byte[box.width * box.height];
+
+        try (MatScope scope = new MatScope()) {
+            Mat roi = scope.track(bgr.submat(box));
+            Mat gray = scope.track(new Mat());
+            Imgproc.cvtColor(roi, gray, Imgproc.COLOR_BGR2GRAY);
+            gray.get(0, 0, pixels);
+        }
+
+        // unit direction of the line and its normal
+        double dx = (line.x2 - line.x1) / length;
+        double dy = (line.y2 - line.y1) / length;
+        double nx = -dy;
+        double ny = dx;
+
+        int samples = Math.max(2, (int) (length / SAMPLE_STEP));
+        int probed = 0;
+        int supported = 0;
+
+        for (int k = 0; k <= samples; k++) {
+            double t = k * length / samples;
+            double px = line.x1 + dx * t - box.x;
+            double py = line.y1 + dy * t - box.y;
+
+            int center = sample(pixels, box, px, py);
+            if (center < 0) continue;
+            probed++;
+
+            for (int reach = 1; reach <= PROBE_REACH; reach++) {
+                int side1 = sample(pixels, box, px + nx * reach, py + ny * reach);
+                int side2 = sample(pixels, box, px - nx * reach, py - ny * reach);
+
+                if ((side1 >= 0 && Math.abs(side1 - center) >= MIN_EDGE_CONTRAST)
+                    || (side2 >= 0 && Math.abs(side2 - center) >= MIN_EDGE_CONTRAST)) {
+                    supported++;
+                    break;
+                }
+            }
+        }
+
+        return probed == 0 ? 0 : (double) supported / probed;
+    }
+
+    // gray level at the nearest pixel, -1 outside the box
+    private static int sample(byte[] pixels, Rect box, double x, double y) {
+        int column = (int) Math.round(x);
+        int row = (int) Math.round(y);
+        if (column < 0 || row < 0 || column >= box.width || row >= box.height) return -1;
+
+        return pixels[row * box.width + column] & 0xFF;
+    }
+
+    private static List<Goal> copy(List<Goal> goals) {
+        List<Goal> copies = new ArrayList<>(goals.size());
+        for (Goal goal : goals) {
+            copies.add(new Goal(copy(goal.post1), copy(goal.post2), copy(goal.crossbar)));
+        }
+        return copies;
+    }
+
+    private static Line copy(Line line)
+    { return new Line(line.x1, line.y1, line.x2, line.y2); }
+}
@@ -4,7 +4,12 @@ import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.LineSegmentDetector;
 import org.opencv.imgcodecs.Imgcodecs;
+
+import mg.itu.algo.FrameContext;
+import mg.itu.algo.PipelineMetrics;
+
 import java.util.*;
+import java.util.function.ToDoubleFunction;
 
 public class GoalCageUtils {
     
@@ -12,49 +17,176 @@ public class GoalCageUtils {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
     }
 
-    public static List<Goal> detectGoal(String imagePath) {
-        // Read and preprocess image
-        Mat source = Imgcodecs.imread(imagePath);
-        Mat gray = new Mat();
-        Imgproc.cvtColor(source, gray, Imgproc.COLOR_BGR2GRAY);
+    // one detector per thread instead of a new native instance on every call
+    private static final ThreadLocal<LineSegmentDetector> LINE_DETECTOR = 
+        ThreadLocal.withInitial(Imgproc::createLineSegmentDetector);
+
+    // how far a crossbar may sit from the ends of the posts, in pixels
+    private static final double CROSSBAR_TOLERANCE = 20;
+
+    public static List<Goal> detectGoal(String imagePath) throws Exception {
+        try (FrameContext frame = new FrameContext(imagePath)) 
+        { return detectGoal(frame); }
+    }
+
+    public static List<Goal> detectGoal(FrameContext frame) throws Exception 
+    { return detectGoal(frame, "img/detected_goals.jpg"); }
 
-        // Create LSD detector and detect lines
-        Mat lines = new Mat();
-        LineSegmentDetector detector = Imgproc.createLineSegmentDetector();
-        detector.detect(gray, lines);
+    /**
+     * Detects the goal cages in the frame. The debug image with the detected goals 
+     * is only drawn and written when a debug output path is given.
+     */
+    public static List<Goal> detectGoal(FrameContext frame, String debugOutputPath) throws Exception {
+        // Reuse the frame's decoded image and gray conversion, the coarse one in pyramid mode
+        int factor = frame.getPyramidFactor();
+        Mat gray = factor > 1 ? frame.getCoarseGray() : frame.getGray();
 
         // Process detected lines
         List<Line> verticalLines = new ArrayList<>();
         List<Line> horizontalLines = new ArrayList<>();
 
-        // Convert detected lines to our Line objects
-        for (int i = 0; i < lines.rows(); i++) {
-            double[] line = lines.get(i, 0);
-            Line detectedLine = new Line(line[0], line[1], line[2], line[3]);
-            
-            // Calculate line angle
-            double angle = Math.abs(Math.toDegrees(detectedLine.getAngle()));
-            
-            // Classify lines with wider tolerance for perspective distortion
-            if ((angle > 75 && angle < 105)) {
-                verticalLines.add(detectedLine);
-            } else if (angle < 15 || angle > 165) {
-                horizontalLines.add(detectedLine);
+        long start = System.nanoTime();
+        try (MatScope scope = new MatScope()) {
+            // Detect lines with the thread's LSD detector
+            Mat lines = scope.track(new Mat());
+            LINE_DETECTOR.get().detect(gray, lines);
+
+            // Convert detected lines to our Line objects
+            for (int i = 0; i < lines.rows(); i++) {
+                double[] line = lines.get(i, 0);
+                Line detectedLine = factor > 1
+                    ? new Line(
+                        PyramidUtils.toFullResolution(line[0], factor), PyramidUtils.toFullResolution(line[1], factor),
+                        PyramidUtils.toFullResolution(line[2], factor), PyramidUtils.toFullResolution(line[3], factor))
+                    : new Line(line[0], line[1], line[2], line[3]);
+                
+                // Calculate line angle
+                double angle = Math.abs(Math.toDegrees(detectedLine.getAngle()));
+                
+                // Classify lines with wider tolerance for perspective distortion
+                if ((angle > 75 && angle < 105)) {
+                    verticalLines.add(detectedLine);
+                } else if (angle < 15 || angle > 165) {
+                    horizontalLines.add(detectedLine);
+                }
             }
         }
 
+        PipelineMetrics.record("goal.lsd", start);
+
         // Find goal candidates using geometric analysis
+        start = System.nanoTime();
         List<Goal> detectedGoals = findGoalStructures(verticalLines, horizontalLines);
+        PipelineMetrics.record("goal.pairing", start);
 
-        // Draw detected goals
-        drawGoals(source, detectedGoals);
+        // Coarse lines are only as precise as the coarse pixels, measure the goal lines again
+        if (factor > 1) {
+            start = System.nanoTime();
+            refineGoals(frame.getBgr(), detectedGoals, factor);
+            PipelineMetrics.record("goal.refine", start);
+        }
 
-        // Save result for debug
-        Imgcodecs.imwrite("img/detected_goals.jpg", source);
+        if (debugOutputPath != null) {
+            // Draw detected goals on a copy, the frame is shared with other stages
+            Mat source = frame.getBgr().clone();
+            drawGoals(source, detectedGoals);
+
+            // Save result for debug
+            Imgcodecs.imwrite(debugOutputPath, source);
+            source.release();
+        }
 
         return detectedGoals;
     }
 
+    private static void refineGoals(Mat bgr, List<Goal> goals, int factor) {
+        // goals found from the same post share its line, refine each line once
+        Map<Line, Line> refined = new IdentityHashMap<>();
+        for (Goal goal : goals) {
+            goal.post1 = refined.computeIfAbsent(goal.post1, line -> refineLine(bgr, line, factor));
+            goal.post2 = refined.computeIfAbsent(goal.post2, line -> refineLine(bgr, line, factor));
+            goal.crossbar = refined.computeIfAbsent(goal.crossbar, line -> refineLine(bgr, line, factor));
+        }
+    }
+
+    /**
+     * Runs LSD on a full-resolution window along a coarse line and returns the segment
+     * closest to it, extended over its collinear pieces, or the coarse line when the
+     * window has no matching segment. Endpoints keep the order of the coarse line.
+     */
+    private static Line refineLine(Mat bgr, Line coarse, int factor) {
+        int margin = 2 * factor;
+        int left = (int) Math.max(0, Math.floor(Math.min(coarse.x1, coarse.x2)) - margin);
+        int top = (int) Math.max(0, Math.floor(Math.min(coarse.y1, coarse.y2)) - margin);
+        int right = (int) Math.min(bgr.cols(), Math.ceil(Math.max(coarse.x1, coarse.x2)) + margin + 1);
+        int bottom = (int) Math.min(bgr.rows(), Math.ceil(Math.max(coarse.y1, coarse.y2)) + margin + 1);
+        if (right <= left || bottom <= top) return coarse;
+
+        double length = coarse.length();
+        if (length == 0) return coarse;
+
+        // unit direction of the coarse line and its normal
+        double dx = (coarse.x2 - coarse.x1) / length;
+        double dy = (coarse.y2 - coarse.y1) / length;
+
+        List<double[]> candidates = new ArrayList<>();
+        try (MatScope scope = new MatScope()) {
+            Mat roi = scope.track(bgr.submat(top, bottom, left, right));
+            Mat gray = scope.track(new Mat());
+            Imgproc.cvtColor(roi, gray, Imgproc.COLOR_BGR2GRAY);
+
+            Mat segments = scope.track(new Mat());
+            LINE_DETECTOR.get().detect(gray, segments);
+
+            for (int i = 0; i < segments.rows(); i++) {
+                double[] segment = segments.get(i, 0);
+                double x1 = segment[0] + left, y1 = segment[1] + top;
+                double x2 = segment[2] + left, y2 = segment[3] + top;
+
+                double segmentLength = euclideanDistance(x1, y1, x2, y2);
+                if (segmentLength == 0) continue;
+
+                // parallel within 10 degrees, either way round
+                double cos = Math.abs(((x2 - x1) * dx + (y2 - y1) * dy) / segmentLength);
+                if (cos < Math.cos(Math.toRadians(10))) continue;
+
+                // signed distance of the segment middle to the coarse line
+                double offset = ((x1 + x2) / 2 - coarse.x1) * -dy + ((y1 + y2) / 2 - coarse.y1) * dx;
+                if (Math.abs(offset) > margin) continue;
+
+                candidates.add(new double[] { x1, y1, x2, y2, offset });
+            }
+        }
+
+        if (candidates.isEmpty()) return coarse;
+
+        double[] anchor = candidates.get(0);
+        for (double[] candidate : candidates) {
+            if (Math.abs(candidate[4]) < Math.abs(anchor[4])) anchor = candidate;
+        }
+
+        // LSD splits long edges, take the extreme endpoints of the pieces on the anchor's line
+        double minProjection = Double.MAX_VALUE, maxProjection = -Double.MAX_VALUE;
+        double[] first = null, last = null;
+        for (double[] candidate : candidates) {
+            if (Math.abs(candidate[4] - anchor[4]) > 1.5) continue;
+
+            for (int end = 0; end < 4; end += 2) {
+                double projection = (candidate[end] - coarse.x1) * dx + (candidate[end + 1] - coarse.y1) * dy;
+                if (projection < minProjection) {
+                    minProjection = projection;
+                    first = new double[] { candidate[end], candidate[end + 1] };
+                }
+                if (projection > maxProjection) {
+                    maxProjection = projection;
+                    last = new double[] { candidate[end], candidate[end + 1] };
+                }
+            }
+        }
+
+        return new Line(first[0], first[1], last[0], last[1]);
+    }
+
     private static List<Goal> findGoalStructures(List<Line> verticalLines, List<Line> horizontalLines) {
         List<Goal> goals = new ArrayList<>();
         double maxRatio = 2.5; // Maximum allowed ratio between post heights
@@ -64,16 +196,46 @@ public class GoalCageUtils {
         // Group nearby vertical lines that might be parts of the same post
         List<Line> mergedVerticals = mergeNearbyLines(verticalLines, 20);
 
-        // Find potential goal post pairs
-        for (int i = 0; i < mergedVerticals.size(); i++) {
-            for (int j = i + 1; j < mergedVerticals.size(); j++) {
-                Line post1 = mergedVerticals.get(i);
-                Line post2 = mergedVerticals.get(j);
+        // Shorter lines never make a post, drop them before pairing (the order is kept)
+        List<Line> posts = new ArrayList<>();
+        for (Line line : mergedVerticals) {
+            if (line.length() >= minPostHeight) posts.add(line);
+        }
+
+        if (posts.size() < 2 || horizontalLines.isEmpty()) return goals;
+
+        // A crossbar sits near the tops (or the bottoms) of both posts and is about as long as
+        // the posts are apart: the posts of a pair have their tops (or bottoms) less than two
+        // tolerances apart and are no further apart than the longest line plus two tolerances
+        double longestLine = 0;
+        for (Line line : horizontalLines) longestLine = Math.max(longestLine, line.length());
+
+        double pairHeight = 2 * CROSSBAR_TOLERANCE;
+        double pairWidth = longestLine + 2 * CROSSBAR_TOLERANCE;
+        LineGrid postsByTop = new LineGrid(posts, 
+            line -> Math.min(line.y1, line.y2), pairHeight, line -> line.x1, pairWidth);
+        LineGrid postsByBottom = new LineGrid(posts, 
+            line -> Math.max(line.y1, line.y2), pairHeight, line -> line.x1, pairWidth);
+        LineGrid crossbars = new LineGrid(horizontalLines, 
+            line -> (line.y1 + line.y2) / 2, CROSSBAR_TOLERANCE, Line::length, 2 * CROSSBAR_TOLERANCE);
+
+        // Find potential goal post pairs, in the same order as an all-pairs scan
+        for (int i = 0; i < posts.size(); i++) {
+            Line post1 = posts.get(i);
+            double top = Math.min(post1.y1, post1.y2);
+            double bottom = Math.max(post1.y1, post1.y2);
+            int[] candidates = union(
+                postsByTop.range(top - pairHeight, top + pairHeight, post1.x1 - pairWidth, post1.x1 + pairWidth),
+                postsByBottom.range(bottom - pairHeight, bottom + pairHeight, post1.x1 - pairWidth, post1.x1 + pairWidth));
+
+            for (int j : candidates) {
+                if (j <= i) continue;
+                Line post2 = posts.get(j);
 
                 // Check if posts have similar height and are roughly parallel
                 if (isValidPostPair(post1, post2, maxRatio, minPostHeight)) {
                     // Find potential crossbar
-                    Line crossbar = findCrossbar(post1, post2, horizontalLines);
+                    Line crossbar = findCrossbar(post1, post2, horizontalLines, crossbars);
                     if (crossbar != null) {
                         // Check if this goal is significantly different from previously detected goals
                         boolean isNewGoal = true;
@@ -128,22 +290,35 @@ public class GoalCageUtils {
         return angleDiff < Math.PI / 6; // 30 degrees tolerance
     }
 
-    private static Line findCrossbar(Line post1, Line post2, List<Line> horizontalLines) {
-        double tolerance = 20; // pixels
+    private static Line findCrossbar(Line post1, Line post2, List<Line> horizontalLines, LineGrid crossbars) {
+        double tolerance = CROSSBAR_TOLERANCE;
         double expectedWidth = euclideanDistance(post1.x1, post1.y1, post2.x1, post2.y1);
         Line bestCrossbar = null;
         double bestScore = Double.MAX_VALUE;
+        int bestIndex = Integer.MAX_VALUE;
+
+        // Only the lines within the tolerance of both tops or both bottoms, and of the right length, can qualify
+        double top1 = Math.min(post1.y1, post1.y2), top2 = Math.min(post2.y1, post2.y2);
+        double bottom1 = Math.max(post1.y1, post1.y2), bottom2 = Math.max(post2.y1, post2.y2);
+        double minWidth = expectedWidth - tolerance * 2, maxWidth = expectedWidth + tolerance * 2;
+        int[] nearTops = crossbars.range(Math.max(top1, top2) - tolerance, Math.min(top1, top2) + tolerance, minWidth, maxWidth);
+        int[] nearBottoms = crossbars.range(Math.max(bottom1, bottom2) - tolerance, Math.min(bottom1, bottom2) + tolerance, minWidth, maxWidth);
+
+        for (int k = 0; k < nearTops.length + nearBottoms.length; k++) {
+            int index = k < nearTops.length ? nearTops[k] : nearBottoms[k - nearTops.length];
+            Line line = horizontalLines.get(index);
 
-        for (Line line : horizontalLines) {
             // Check both top and bottom of posts
             if ((isNearPostEnd(line, post1, post2, tolerance, true) || // Check top
                  isNearPostEnd(line, post1, post2, tolerance, false))  // Check bottom
                 && Math.abs(line.length() - expectedWidth) < tolerance * 2) {
                 
+                // On a tie the first line wins, as in a scan of the lines in order
                 double widthDiff = Math.abs(line.length() - expectedWidth);
-                if (widthDiff < bestScore) {
+                if (widthDiff < bestScore || (widthDiff == bestScore && index < bestIndex)) {
                     bestScore = widthDiff;
                     bestCrossbar = line;
+                    bestIndex = index;
                 }
             }
         }
@@ -168,6 +343,9 @@ public class GoalCageUtils {
         List<Line> merged = new ArrayList<>();
         boolean[] used = new boolean[lines.size()];
 
+        // Mergeable lines start less than the tolerance apart, look only at those
+        LineGrid linesByStart = new LineGrid(lines, line -> line.x1, tolerance, line -> line.y1, tolerance);
+
         for (int i = 0; i < lines.size(); i++) {
             if (used[i]) continue;
             
@@ -175,8 +353,11 @@ public class GoalCageUtils {
             List<Line> group = new ArrayList<>();
             group.add(current);
             
-            for (int j = i + 1; j < lines.size(); j++) {
-                if (!used[j] && shouldMergeLines(current, lines.get(j), tolerance)) {
+            int[] candidates = linesByStart.range(current.x1 - tolerance, current.x1 + tolerance, current.y1 - tolerance, current.y1 + tolerance);
+            Arrays.sort(candidates);
+
+            for (int j : candidates) {
+                if (j > i && !used[j] && shouldMergeLines(current, lines.get(j), tolerance)) {
                     group.add(lines.get(j));
                     used[j] = true;
                 }
@@ -230,6 +411,22 @@ public class GoalCageUtils {
         }
     }
 
+    // Indices of the lines of both ranges, sorted and without duplicates
+    private static int[] union(int[] first, int[] second) {
+        Arrays.sort(first);
+        Arrays.sort(second);
+
+        int[] union = new int[first.length + second.length];
+        int i = 0, j = 0, count = 0;
+        while (i < first.length || j < second.length) {
+            int next = j >= second.length || (i < first.length && first[i] <= second[j]) ? first[i] : second[j];
+            if (i < first.length && first[i] == next) i++;
+            if (j < second.length && second[j] == next) j++;
+            union[count++] = next;
+        }
+        return Arrays.copyOf(union, count);
+    }
+
     private static double euclideanDistance(double x1, double y1, double x2, double y2) {
         return Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
     }
@@ -251,6 +448,108 @@ public class GoalCageUtils {
         }
     }
 
+    /**
+     * Uniform grid over two keys of the lines (a position, a length...), so that the lines
+     * with both keys in a range are found among a few cells instead of a scan of every line.
+     */
+    private static class LineGrid {
+        // ranges are widened by this much so that rounding never drops a line the exact test keeps
+        private static final double MARGIN = 1e-6;
+
+        private final double[] keysA;
+        private final double[] keysB;
+        private final double originA, originB;
+        private final double cellA, cellB;
+        private final int columns, rows;
+        // lines of cell c are entries[cellStart[c]] to entries[cellStart[c + 1] - 1], in index order
+        private final int[] cellStart;
+        private final int[] entries;
+
+        LineGrid(List<Line> lines, ToDoubleFunction<Line> keyA, double cellA, ToDoubleFunction<Line> keyB, double cellB) {
+            int count = lines.size();
+            keysA = new double[count];
+            keysB = new double[count];
+            double minA = Double.MAX_VALUE, maxA = -Double.MAX_VALUE;
+            double minB = Double.MAX_VALUE, maxB = -Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                keysA[i] = keyA.applyAsDouble(lines.get(i));
+                keysB[i] = keyB.applyAsDouble(lines.get(i));
+                minA = Math.min(minA, keysA[i]);
+                maxA = Math.max(maxA, keysA[i]);
+                minB = Math.min(minB, keysB[i]);
+                maxB = Math.max(maxB, keysB[i]);
+            }
+
+            originA = count == 0 ? 0 : minA;
+            originB = count == 0 ? 0 : minB;
+
+            // coarser cells when the lines are spread much wider than they are many
+            long maxCells = 4L * count + 64;
+            while (cellCount(maxA - originA, cellA, maxB - originB, cellB) > maxCells) {
+                cellA *= 2;
+                cellB *= 2;
+            }
+            this.cellA = cellA;
+            this.cellB = cellB;
+            columns = count == 0 ? 1 : (int) ((maxA - originA) / cellA) + 1;
+            rows = count == 0 ? 1 : (int) ((maxB - originB) / cellB) + 1;
+
+            // counting sort of the lines by cell, which keeps the index order inside a cell
+            int[] cells = new int[count];
+            cellStart = new int[columns * rows + 1];
+            for (int i = 0; i < count; i++) {
+                cells[i] = cell(column(keysA[i]), row(keysB[i]));
+                cellStart[cells[i] + 1]++;
+            }
+            for (int c = 0; c < columns * rows; c++) cellStart[c + 1] += cellStart[c];
+
+            entries = new int[count];
+            int[] next = Arrays.copyOf(cellStart, columns * rows);
+            for (int i = 0; i < count; i++) entries[next[cells[i]]++] = i;
+        }
+
+        private static long cellCount(double spanA, double cellA, double spanB, double cellB)
+        { return ((long) (spanA / cellA) + 1) * ((long) (spanB / cellB) + 1); }
+
+        private int column(double keyA)
+        { return (int) Math.max(0, Math.min(columns - 1, Math.floor((keyA - originA) / cellA))); }
+
+        private int row(double keyB)
+        { return (int) Math.max(0, Math.min(rows - 1, Math.floor((keyB - originB) / cellB))); }
+
+        private int cell(int column, int row)
+        { return row * columns + column; }
+
+        /**
+         * Indices of the lines whose first key is within [minA, maxA] and second key 
+         * within [minB, maxB], in no particular order.
+         */
+        int[] range(double minA, double maxA, double minB, double maxB) {
+            minA -= Math.abs(minA) * MARGIN + MARGIN;
+            maxA += Math.abs(maxA) * MARGIN + MARGIN;
+            minB -= Math.abs(minB) * MARGIN + MARGIN;
+            maxB += Math.abs(maxB) * MARGIN + MARGIN;
+            if (minA > maxA || minB > maxB || entries.length == 0) return new int[0];
+
+            int[] range = new int[16];
+            int count = 0;
+            for (int row = row(minB); row <= row(maxB); row++) {
+                for (int column = column(minA); column <= column(maxA); column++) {
+                    int c = cell(column, row);
+                    for (int e = cellStart[c]; e < cellStart[c + 1]; e++) {
+                        int i = entries[e];
+                        if (keysA[i] < minA || keysA[i] > maxA || keysB[i] < minB || keysB[i] > maxB) continue;
+
+                        if (count == range.length) range = Arrays.copyOf(range, count * 2);
+                        range[count++] = i;
+                    }
+                }
+            }
+
+            return Arrays.copyOf(range, count);
+        }
+    }
+
     public static class Goal {
         public Line post1, post2, crossbar;
         
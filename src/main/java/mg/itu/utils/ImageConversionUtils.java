@@ -0,0 +1,54 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+public class ImageConversionUtils {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     * Copies an 8-bit BGR or gray Mat straight into the backing array of a new
+     * {@link BufferedImage}: the Mat and AWT share the same pixel layout,
+     * so there is no encoding, no per-pixel loop and no channel swap.
+     */
+    public static BufferedImage toBufferedImage(Mat image) {
+        int imageType;
+        if (image.type() == CvType.CV_8UC3) imageType = BufferedImage.TYPE_3BYTE_BGR;
+        else if (image.type() == CvType.CV_8UC1) imageType = BufferedImage.TYPE_BYTE_GRAY;
+        else throw new IllegalArgumentException("Unsupported image type: " + CvType.typeToString(image.type()));
+
+        BufferedImage result = new BufferedImage(image.cols(), image.rows(), imageType);
+        byte[] pixels = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+        image.get(0, 0, pixels);
+        return result;
+    }
+
+    /**
+     * Same as {@link #toBufferedImage(Mat)} after resizing the image to fit in the
+     * given box, keeping its aspect ratio. Scaling the Mat first (area averaging when
+     * shrinking) is much cheaper than scaling the AWT image afterwards.
+     */
+    public static BufferedImage toBufferedImage(Mat image, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / image.cols(), (double) maxHeight / image.rows());
+        if (scale <= 0 || scale == 1) return toBufferedImage(image);
+
+        Mat resized = new Mat();
+        Imgproc.resize(image, resized, new Size(Math.max(1, image.cols() * scale), Math.max(1, image.rows() * scale)),
+            0, 0, scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+
+        try
+        { return toBufferedImage(resized); }
+
+        finally
+        { resized.release(); }
+    }
+}
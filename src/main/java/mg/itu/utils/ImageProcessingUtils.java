@@ -12,7 +12,7 @@ import java.util.List;
 
 public class ImageProcessingUtils {
 
-    // HSV Color ranges
+    // HSV Color ranges of the reference HSV path, the same as KitConfiguration.DEFAULT
     private static final Scalar BLUE_HSV_MIN = new Scalar(100, 50, 50);
     private static final Scalar BLUE_HSV_MAX = new Scalar(130, 255, 255);
     private static final Scalar RED_HSV_MIN1 = new Scalar(0, 50, 50);
@@ -22,65 +22,233 @@ public class ImageProcessingUtils {
     private static final Scalar BALL_HSV_MIN = new Scalar(0, 0, 0);
     private static final Scalar BALL_HSV_MAX = new Scalar(180, 255, 30);
     
-    private static final int MIN_PLAYER_AREA = 100;
+    public static final int MIN_PLAYER_AREA = 100;
 
     public static List<Player> detectPlayers(Mat image) {
+        try (MatScope scope = new MatScope()) {
+            Mat labels = scope.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+            ColorClassifier.DEFAULT.classify(image, labels);
+            return detectPlayersInLabels(labels);
+        }
+    }
+
+    /**
+     * Players from a label image produced by a {@link ColorClassifier}.
+     */
+    public static List<Player> detectPlayersInLabels(Mat labels) {
         List<Player> players = new ArrayList<>();
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_BGR2HSV);
 
-        Mat blueMask = new Mat();
-        Core.inRange(hsv, BLUE_HSV_MIN, BLUE_HSV_MAX, blueMask);
-        detectTeamPlayers(blueMask, true, players);
+        try (MatScope scope = new MatScope()) {
+            Mat mask = scope.acquire(labels.rows(), labels.cols(), CvType.CV_8UC1);
 
-        Mat redMask1 = new Mat();
-        Mat redMask2 = new Mat();
+            Core.compare(labels, new Scalar(ColorClassifier.BLUE), mask, Core.CMP_EQ);
+            detectTeamPlayers(mask, true, false, players);
 
-        Core.inRange(hsv, RED_HSV_MIN1, RED_HSV_MAX1, redMask1);
-        Core.inRange(hsv, RED_HSV_MIN2, RED_HSV_MAX2, redMask2);
-        
-        Mat redMask = new Mat();
-        Core.add(redMask1, redMask2, redMask);
-        detectTeamPlayers(redMask, false, players);
+            Core.compare(labels, new Scalar(ColorClassifier.RED), mask, Core.CMP_EQ);
+            detectTeamPlayers(mask, false, false, players);
+        }
+
+        return players;
+    }
+
+    public static List<Player> detectPlayersInHsv(Mat hsv) 
+    { return detectPlayersInHsv(hsv, false); }
+
+    /**
+     * @param isContourExtraction extract the players with findContours and per-contour moments
+     *                            instead of connected components, kept for comparison
+     */
+    public static List<Player> detectPlayersInHsv(Mat hsv, boolean isContourExtraction) {
+        List<Player> players = new ArrayList<>();
+
+        // masks come from the thread's pool and go back to it once the players are extracted
+        try (MatScope scope = new MatScope()) {
+            Mat blueMask = scope.acquire(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+            Core.inRange(hsv, BLUE_HSV_MIN, BLUE_HSV_MAX, blueMask);
+            detectTeamPlayers(blueMask, true, isContourExtraction, players);
+
+            Mat redMask1 = scope.acquire(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+            Mat redMask2 = scope.acquire(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+
+            Core.inRange(hsv, RED_HSV_MIN1, RED_HSV_MAX1, redMask1);
+            Core.inRange(hsv, RED_HSV_MIN2, RED_HSV_MAX2, redMask2);
+            
+            Mat redMask = scope.acquire(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+            Core.add(redMask1, redMask2, redMask);
+            detectTeamPlayers(redMask, false, isContourExtraction, players);
+        }
 
         return players;
     }
 
-    private static void detectTeamPlayers(Mat mask, boolean isBlueTeam, List<Player> players) {
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+    private static void detectTeamPlayers(Mat mask, boolean isBlueTeam, boolean isContourExtraction, List<Player> players) {
+        if (isContourExtraction) {
+            detectTeamPlayersByContours(mask, isBlueTeam, players);
+            return;
+        }
+
+        // only the blobs that pass the area filter become players
+        Blobs blobs = extractBlobs(mask, MIN_PLAYER_AREA);
+        for (int i = 0; i < blobs.count; i++) {
+            int x = (int) blobs.centroidX[i];
+            int y = (int) blobs.centroidY[i];
+            players.add(new Player(new Point(x, y), isBlueTeam));
+        }
+    }
+
+    private static void detectTeamPlayersByContours(Mat mask, boolean isBlueTeam, List<Player> players) {
+        try (MatScope scope = new MatScope()) {
+            List<MatOfPoint> contours = new ArrayList<>();
+            Mat hierarchy = scope.track(new Mat());
+            Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            scope.trackAll(contours);
+
+            for (MatOfPoint contour : contours) {
+                Moments moments = Imgproc.moments(contour);
+                double area = Imgproc.contourArea(contour);
+
+                if (area > MIN_PLAYER_AREA) {
+                    int x = (int) (moments.m10 / moments.m00);
+                    int y = (int) (moments.m01 / moments.m00);
+                    players.add(new Player(new Point(x, y), isBlueTeam));
+                }
+            }
+        }
+    }
+
+    /**
+     * Blobs (8-connected) of the mask covering more than {@code minArea} pixels, in label order.
+     * One native connected-components call labels the mask and computes every area and
+     * centroid; both tables come back in a single bulk copy each, and the small blobs
+     * are dropped without creating any Java object for them.
+     */
+    public static Blobs extractBlobs(Mat mask, int minArea) {
+        try (MatScope scope = new MatScope()) 
+        { return extractBlobs(mask, minArea, scope.acquire(mask.rows(), mask.cols(), CvType.CV_32S)); }
+    }
+
+    /**
+     * Same with a caller-provided label buffer, for masks whose size changes on every call
+     * (refinement windows) and would only churn the thread's pool.
+     */
+    static Blobs extractBlobs(Mat mask, int minArea, Mat labels) {
+        try (MatScope scope = new MatScope()) {
+            Mat stats = scope.track(new Mat());
+            Mat centroids = scope.track(new Mat());
+            // Grana's block-based labelling, measured faster than the default one on 32-bit labels
+            int labelCount = Imgproc.connectedComponentsWithStatsWithAlgorithm(
+                mask, labels, stats, centroids, 8, CvType.CV_32S, Imgproc.CCL_GRANA);
+
+            int[] statsTable = new int[labelCount * Imgproc.CC_STAT_MAX];
+            double[] centroidTable = new double[labelCount * 2];
+            stats.get(0, 0, statsTable);
+            centroids.get(0, 0, centroidTable);
+
+            // label 0 is the background
+            int capacity = Math.max(0, labelCount - 1);
+            double[] centroidX = new double[capacity];
+            double[] centroidY = new double[capacity];
+            int[] area = new int[capacity];
+            int[] left = new int[capacity];
+            int[] top = new int[capacity];
+            int[] width = new int[capacity];
+            int[] height = new int[capacity];
+            int count = 0;
 
-        for (MatOfPoint contour : contours) {
-            Moments moments = Imgproc.moments(contour);
-            double area = Imgproc.contourArea(contour);
+            for (int label = 1; label < labelCount; label++) {
+                int statsRow = label * Imgproc.CC_STAT_MAX;
+                int labelArea = statsTable[statsRow + Imgproc.CC_STAT_AREA];
+                if (labelArea <= minArea) continue;
 
-            if (area > MIN_PLAYER_AREA) {
-                int x = (int) (moments.m10 / moments.m00);
-                int y = (int) (moments.m01 / moments.m00);
-                players.add(new Player(new Point(x, y), isBlueTeam));
+                centroidX[count] = centroidTable[label * 2];
+                centroidY[count] = centroidTable[label * 2 + 1];
+                area[count] = labelArea;
+                left[count] = statsTable[statsRow + Imgproc.CC_STAT_LEFT];
+                top[count] = statsTable[statsRow + Imgproc.CC_STAT_TOP];
+                width[count] = statsTable[statsRow + Imgproc.CC_STAT_WIDTH];
+                height[count] = statsTable[statsRow + Imgproc.CC_STAT_HEIGHT];
+                count++;
             }
+
+            return new Blobs(count, centroidX, centroidY, area, left, top, width, height);
         }
     }
 
     public static Point detectBall(Mat image) {
-        Mat hsvImage = new Mat();
-        Imgproc.cvtColor(image, hsvImage, Imgproc.COLOR_BGR2HSV);
+        try (MatScope scope = new MatScope()) {
+            Mat labels = scope.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+            ColorClassifier.DEFAULT.classify(image, labels);
+            return detectBallInLabels(labels);
+        }
+    }
+
+    /**
+     * Ball from a label image produced by a {@link ColorClassifier}.
+     */
+    public static Point detectBallInLabels(Mat labels) {
+        try (MatScope scope = new MatScope()) {
+            Mat ballMask = scope.acquire(labels.rows(), labels.cols(), CvType.CV_8UC1);
+            Core.compare(labels, new Scalar(ColorClassifier.BALL), ballMask, Core.CMP_EQ);
+            return detectBallInMask(ballMask);
+        }
+    }
 
-        Mat ballMask = new Mat();
-        Core.inRange(hsvImage, BALL_HSV_MIN, BALL_HSV_MAX, ballMask);
+    public static Point detectBallInHsv(Mat hsvImage) {
+        try (MatScope scope = new MatScope()) {
+            Mat ballMask = scope.acquire(hsvImage.rows(), hsvImage.cols(), CvType.CV_8UC1);
+            Core.inRange(hsvImage, BALL_HSV_MIN, BALL_HSV_MAX, ballMask);
+            return detectBallInMask(ballMask);
+        }
+    }
+
+    private static Point detectBallInMask(Mat ballMask) {
+        try (MatScope scope = new MatScope()) {
+            List<MatOfPoint> contours = new ArrayList<>();
+            Mat hierarchy = scope.track(new Mat());
+            Imgproc.findContours(ballMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            scope.trackAll(contours);
 
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(ballMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            int ball = findBestBallContour(contours);
+            if (ball < 0) return null;
 
-        if (!contours.isEmpty()) {
-            Moments moments = Imgproc.moments(contours.get(0));
+            Moments moments = Imgproc.moments(contours.get(ball));
             int ballX = (int) (moments.m10 / moments.m00);
             int ballY = (int) (moments.m01 / moments.m00);
             return new Point(ballX, ballY);
         }
-        return null;
+    }
+
+    /**
+     * Contour most likely to be the ball: the largest once weighted by how round it is,
+     * so that a dark line or a shadow loses to a smaller disc. Contours without area are
+     * never picked.
+     * @return its index, -1 when none has an area
+     */
+    public static int findBestBallContour(List<MatOfPoint> contours) {
+        int best = -1;
+        double bestScore = 0;
+
+        for (int i = 0; i < contours.size(); i++) {
+            double score = scoreBallContour(contours.get(i));
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // area times circularity (4 pi area / perimeter squared, 1 for a disc)
+    static double scoreBallContour(MatOfPoint contour) {
+        double area = Imgproc.contourArea(contour);
+        if (area <= 0) return 0;
+
+        MatOfPoint2f curve = new MatOfPoint2f(contour.toArray());
+        double perimeter = Imgproc.arcLength(curve, true);
+        curve.release();
+
+        double circularity = Math.min(1, 4 * Math.PI * area / (perimeter * perimeter));
+        return area * circularity;
     }
 
     public static Player findClosestPlayer(List<Player> players, Point ballCenter) {
@@ -0,0 +1,166 @@
+package mg.itu.utils;
+
+import org.opencv.core.Point;
+
+import mg.itu.algo.Algo.AnalysisResult;
+import mg.itu.algo.OffsideDecision;
+import mg.itu.algo.PassOffsideMap;
+import mg.itu.algo.PipelineMetrics;
+import mg.itu.algo.StageTimings;
+import mg.itu.entity.Player;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class JsonUtils {
+
+    public static String quote(String value) {
+        if (value == null) return "null";
+
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+                    else builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    public static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return "null";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    public static String point(Point point) {
+        if (point == null) return "null";
+
+        return "{\"x\":" + number(point.x) + ",\"y\":" + number(point.y) + "}";
+    }
+
+    public static String players(List<Player> players) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < players.size(); i++) {
+            Player player = players.get(i);
+            if (i > 0) builder.append(',');
+            builder.append('{');
+            if (player.id != Player.UNTRACKED) builder.append("\"id\":").append(player.id).append(',');
+            builder.append("\"x\":").append(number(player.position.x))
+                   .append(",\"y\":").append(number(player.position.y))
+                   .append(",\"team\":").append(player.isBlueTeam ? "\"blue\"" : "\"red\"")
+                   .append(",\"offside\":").append(player.isOffside)
+                   .append('}');
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Pass options of every player, by index in the players array: the teammates ahead
+     * of it and, among them, those a pass would put offside.
+     */
+    public static String passOptions(PassOffsideMap map) {
+        StringBuilder builder = new StringBuilder("[");
+        int[] receivers = new int[map.size()];
+        for (int passer = 0; passer < map.size(); passer++) {
+            if (passer > 0) builder.append(',');
+
+            int count = map.getReceivers(passer, receivers);
+            StringBuilder offside = new StringBuilder();
+            builder.append("{\"receivers\":[");
+            for (int k = 0; k < count; k++) {
+                if (k > 0) builder.append(',');
+                builder.append(receivers[k]);
+
+                if (map.isOffside(passer, receivers[k])) {
+                    if (offside.length() > 0) offside.append(',');
+                    offside.append(receivers[k]);
+                }
+            }
+            builder.append("],\"offside\":[").append(offside).append("]}");
+        }
+        return builder.append(']').toString();
+    }
+
+    public static String timings(StageTimings timings) {
+        StringBuilder builder = new StringBuilder("{");
+        boolean isFirst = true;
+        for (Map.Entry<String, Long> entry : timings.getDurations().entrySet()) {
+            if (!isFirst) builder.append(',');
+            builder.append(quote(entry.getKey())).append(':').append(number(entry.getValue() / 1_000_000.0));
+            isFirst = false;
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Latency percentiles (ms) and rate of every stage, and native bytes by holder.
+     */
+    public static String metrics(PipelineMetrics.Snapshot snapshot) {
+        StringBuilder builder = new StringBuilder("{\"uptimeSeconds\":").append(number(snapshot.uptimeSeconds));
+
+        builder.append(",\"nativeBytes\":{");
+        boolean isFirst = true;
+        for (Map.Entry<String, Long> entry : snapshot.nativeBytes.entrySet()) {
+            if (!isFirst) builder.append(',');
+            builder.append(quote(entry.getKey())).append(':').append(entry.getValue());
+            isFirst = false;
+        }
+
+        builder.append("},\"stages\":{");
+        isFirst = true;
+        for (Map.Entry<String, PipelineMetrics.StageStats> entry : snapshot.stages.entrySet()) {
+            PipelineMetrics.StageStats stats = entry.getValue();
+            if (!isFirst) builder.append(',');
+            builder.append(quote(entry.getKey()))
+                   .append(":{\"count\":").append(stats.count)
+                   .append(",\"perSecond\":").append(number(stats.perSecond))
+                   .append(",\"meanMs\":").append(number(stats.meanMs))
+                   .append(",\"p50Ms\":").append(number(stats.p50Ms))
+                   .append(",\"p90Ms\":").append(number(stats.p90Ms))
+                   .append(",\"p99Ms\":").append(number(stats.p99Ms))
+                   .append(",\"p999Ms\":").append(number(stats.p999Ms))
+                   .append(",\"maxMs\":").append(number(stats.maxMs)).append('}');
+            isFirst = false;
+        }
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Verdict of a play analysis: flags, positions, offside line and stage timings (ms).
+     */
+    public static String toJson(AnalysisResult result) {
+        OffsideDecision decision = result.decision;
+        StringBuilder builder = new StringBuilder("{");
+
+        builder.append("\"offside\":").append(result.isOffside)
+               .append(",\"goal\":").append(result.isGoal);
+
+        if (decision != null) {
+            builder.append(",\"orientation\":").append(quote(decision.orientation.name()))
+                   .append(",\"attackingTeam\":").append(decision.isAttackingTeamBlue() ? "\"blue\"" : "\"red\"")
+                   .append(",\"offsideLine\":").append(number(decision.getOffsideLine()))
+                   .append(",\"ball\":").append(point(decision.ballCenter))
+                   .append(",\"playerWithBall\":").append(point(decision.playerWithBall.position))
+                   .append(",\"players\":").append(players(decision.players))
+                   .append(",\"passOptions\":").append(passOptions(PassOffsideMap.of(decision)));
+        }
+
+        builder.append(",\"shotBall\":").append(point(result.finalBallPosition));
+
+        if (result.timings != null)
+        { builder.append(",\"timingsMs\":").append(timings(result.timings)); }
+
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,115 @@
+package mg.itu.utils;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread pool of working Mats (HSV image, masks, gray) keyed by size and type,
+ * so that processing frames of a steady resolution stops allocating native memory.
+ *
+ * Only a few shapes are kept per thread; the least recently used shape is released
+ * when the resolution changes. Mats can be given back from any thread.
+ */
+public class MatPool {
+
+    private static final int MAX_SHAPES = 4;
+    private static final int MAX_FREE_PER_SHAPE = 6;
+
+    private static final ThreadLocal<MatPool> THREAD_POOL = ThreadLocal.withInitial(MatPool::new);
+
+    // native bytes of the Mats allocated by every pool and not freed yet, in use or idle
+    private static final AtomicLong LIVE_BYTES = new AtomicLong();
+    private static final AtomicLong IDLE_BYTES = new AtomicLong();
+
+    // access-ordered so the first entry is the least recently used shape
+    private final LinkedHashMap<Long, ArrayDeque<Mat>> free = new LinkedHashMap<>(16, 0.75f, true);
+
+    public static MatPool forCurrentThread()
+    { return THREAD_POOL.get(); }
+
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        ArrayDeque<Mat> mats = free.get(key(rows, cols, type));
+        Mat mat = mats == null ? null : mats.pollFirst();
+
+        if (mat != null) {
+            IDLE_BYTES.addAndGet(-getBytes(mat));
+            return mat;
+        }
+
+        mat = new Mat(rows, cols, type);
+        LIVE_BYTES.addAndGet(getBytes(mat));
+        return mat;
+    }
+
+    public synchronized void release(Mat mat) {
+        if (mat == null) return;
+
+        // an OpenCV call may have reallocated the Mat, file it under its current shape
+        if (mat.empty() || !mat.isContinuous() || mat.isSubmatrix()) {
+            free(mat);
+            return;
+        }
+
+        ArrayDeque<Mat> mats = free.computeIfAbsent(key(mat.rows(), mat.cols(), mat.type()), key -> new ArrayDeque<>());
+        if (mats.size() >= MAX_FREE_PER_SHAPE) {
+            free(mat);
+            return;
+        }
+
+        mats.addFirst(mat);
+        IDLE_BYTES.addAndGet(getBytes(mat));
+        evictShapes();
+    }
+
+    /**
+     * Releases every pooled Mat of this pool.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Mat> mats : free.values()) {
+            for (Mat mat : mats) freeIdle(mat);
+        }
+        free.clear();
+    }
+
+    private void evictShapes() {
+        Iterator<Map.Entry<Long, ArrayDeque<Mat>>> iterator = free.entrySet().iterator();
+        while (free.size() > MAX_SHAPES && iterator.hasNext()) {
+            for (Mat mat : iterator.next().getValue()) freeIdle(mat);
+            iterator.remove();
+        }
+    }
+
+    // counted at their current shape, which is the allocated one unless OpenCV reallocated them
+    private static void free(Mat mat) {
+        LIVE_BYTES.addAndGet(-getBytes(mat));
+        mat.release();
+    }
+
+    private static void freeIdle(Mat mat) {
+        IDLE_BYTES.addAndGet(-getBytes(mat));
+        free(mat);
+    }
+
+    private static long getBytes(Mat mat)
+    { return mat.total() * mat.elemSize(); }
+
+    /**
+     * Native bytes of the working Mats of every thread's pool, in use or idle.
+     */
+    public static long getLiveBytes()
+    { return LIVE_BYTES.get(); }
+
+    /**
+     * Native bytes kept idle in the pools for the next frames.
+     */
+    public static long getIdleBytes()
+    { return IDLE_BYTES.get(); }
+
+    private static long key(int rows, int cols, int type)
+    { return ((long) rows << 40) | ((long) cols << 16) | type; }
+}
@@ -0,0 +1,56 @@
+package mg.itu.utils;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the native buffers of one processing step and frees them when the step ends,
+ * instead of leaving them to the GC finalizing the Java wrappers. Working Mats taken
+ * with {@link #acquire} go back to the thread's {@link MatPool}, tracked Mats are released.
+ *
+ * <pre>
+ * try (MatScope scope = new MatScope()) {
+ *     Mat mask = scope.acquire(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+ *     ...
+ * }
+ * </pre>
+ */
+public class MatScope implements AutoCloseable {
+
+    private final MatPool pool;
+    private final List<Mat> pooled = new ArrayList<>();
+    private final List<Mat> tracked = new ArrayList<>();
+
+    public MatScope()
+    { this(MatPool.forCurrentThread()); }
+
+    public MatScope(MatPool pool)
+    { this.pool = pool; }
+
+    public Mat acquire(int rows, int cols, int type) {
+        Mat mat = pool.acquire(rows, cols, type);
+        pooled.add(mat);
+        return mat;
+    }
+
+    public <T extends Mat> T track(T mat) {
+        tracked.add(mat);
+        return mat;
+    }
+
+    public <T extends Mat> List<T> trackAll(List<T> mats) {
+        tracked.addAll(mats);
+        return mats;
+    }
+
+    @Override
+    public void close() {
+        for (Mat mat : tracked) mat.release();
+        for (Mat mat : pooled) pool.release(mat);
+
+        tracked.clear();
+        pooled.clear();
+    }
+}
@@ -0,0 +1,351 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import mg.itu.algo.FrameContext;
+import mg.itu.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Follows the players of a video from frame to frame and gives each one an id that stays
+ * the same while it is followed. The full detection only runs on keyframes, every few
+ * frames or as soon as too many players were lost; in between, each player is looked for
+ * in a small window around where its last motion predicts it, and only that window is
+ * segmented. A player hidden for a few frames keeps being predicted and gets its id back
+ * when it shows up again near the prediction.
+ *
+ * Keeps the state of one video: feed it the frames in order, from one thread.
+ */
+public class PlayerTracker {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+    // share of the players seen in the previous frame that must be found again to skip a detection
+    private static final double MIN_CONFIDENCE = 0.9;
+    // frames a player may stay unseen before its track is dropped, the occlusions bridged
+    private static final int MAX_MISSED = 15;
+    // pixels searched around a player's box, once more for every frame it was not seen
+    private static final int SEARCH_MARGIN = 16;
+    // half size of the first window of a player whose box is not known yet
+    private static final int INITIAL_SEARCH_RADIUS = 32;
+
+    private static class Track {
+        final int id;
+        final boolean isBlueTeam;
+
+        // last seen position, motion per frame and box, 0 wide until measured
+        double x;
+        double y;
+        double velocityX;
+        double velocityY;
+        int width;
+        int height;
+        int missed;
+
+        Track(int id, boolean isBlueTeam, double x, double y) {
+            this.id = id;
+            this.isBlueTeam = isBlueTeam;
+            this.x = x;
+            this.y = y;
+        }
+
+        double predictX()
+        { return x + velocityX * (missed + 1); }
+
+        double predictY()
+        { return y + velocityY * (missed + 1); }
+
+        // furthest a detection may be from the prediction and still be this player
+        double getGate()
+        { return Math.max(Math.max(width, height), INITIAL_SEARCH_RADIUS) + SEARCH_MARGIN * (missed + 1); }
+
+        void update(double newX, double newY) {
+            velocityX = (newX - x) / (missed + 1);
+            velocityY = (newY - y) / (missed + 1);
+            x = newX;
+            y = newY;
+            missed = 0;
+        }
+    }
+
+    // a detection close enough to a track's prediction to continue it
+    private static class Candidate {
+        final Track track;
+        final int player;
+        final double distance;
+
+        Candidate(Track track, int player, double distance) {
+            this.track = track;
+            this.player = player;
+            this.distance = distance;
+        }
+    }
+
+    // where a track was found in the current frame
+    private static class Match {
+        final Track track;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final double distance;
+
+        Match(Track track, int x, int y, int width, int height, double distance) {
+            this.track = track;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.distance = distance;
+        }
+    }
+
+    private final int keyframeInterval;
+    private final List<Track> tracks = new ArrayList<>();
+    private int nextId;
+    private int framesSinceKeyframe;
+    private boolean isKeyframeDue = true;
+    private int width;
+    private int height;
+
+    private long keyframeCount;
+    private long trackedFrameCount;
+
+    public PlayerTracker()
+    { this(DEFAULT_KEYFRAME_INTERVAL); }
+
+    /**
+     * @param keyframeInterval run the full detection at least once every this many frames
+     */
+    public PlayerTracker(int keyframeInterval) {
+        if (keyframeInterval < 1)
+        { throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval); }
+
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Players of the next frame of the video, with their ids. They are also set as the
+     * players of the frame, so that the analysis of the frame does not detect them again.
+     */
+    public List<Player> track(FrameContext frame) throws Exception {
+        Mat bgr = frame.getBgr();
+
+        // another video or another camera, nothing to follow
+        if (bgr.cols() != width || bgr.rows() != height) {
+            width = bgr.cols();
+            height = bgr.rows();
+            tracks.clear();
+            isKeyframeDue = true;
+        }
+
+        if (isKeyframeDue || tracks.isEmpty() || framesSinceKeyframe + 1 >= keyframeInterval) {
+            List<Player> players = frame.getPlayers();
+            associate(players);
+
+            framesSinceKeyframe = 0;
+            isKeyframeDue = false;
+            keyframeCount++;
+            return players;
+        }
+
+        List<Player> players = follow(bgr, frame.getClassifier());
+        frame.setPlayers(players);
+
+        framesSinceKeyframe++;
+        trackedFrameCount++;
+        return players;
+    }
+
+    /**
+     * Gives the detected players the ids of the tracks they continue, closest pairs first,
+     * and new ids to the others.
+     */
+    private void associate(List<Player> players) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (Track track : tracks) {
+            for (int i = 0; i < players.size(); i++) {
+                Player player = players.get(i);
+                if (player.isBlueTeam != track.isBlueTeam) continue;
+
+                double distance = Math.hypot(player.position.x - track.predictX(), player.position.y - track.predictY());
+                if (distance <= track.getGate()) candidates.add(new Candidate(track, i, distance));
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(a.distance, b.distance));
+
+        boolean[] isPlayerTaken = new boolean[players.size()];
+        Set<Track> seen = new HashSet<>();
+        for (Candidate candidate : candidates) {
+            if (isPlayerTaken[candidate.player] || seen.contains(candidate.track)) continue;
+
+            Player player = players.get(candidate.player);
+            candidate.track.update(player.position.x, player.position.y);
+            player.id = candidate.track.id;
+            isPlayerTaken[candidate.player] = true;
+            seen.add(candidate.track);
+        }
+
+        ageUnseen(seen);
+
+        for (int i = 0; i < players.size(); i++) {
+            if (isPlayerTaken[i]) continue;
+
+            Player player = players.get(i);
+            Track track = new Track(nextId++, player.isBlueTeam, player.position.x, player.position.y);
+            player.id = track.id;
+            tracks.add(track);
+        }
+    }
+
+    /**
+     * Looks for every track in a window around its prediction, on this frame only.
+     */
+    private List<Player> follow(Mat bgr, ColorClassifier classifier) {
+        Map<Long, Match> blobs = new HashMap<>();
+        int expected = 0;
+
+        try (MatScope scope = new MatScope()) {
+            Mat windowLabels = scope.track(new Mat());
+            Mat windowMask = scope.track(new Mat());
+            Mat componentLabels = scope.track(new Mat());
+
+            for (Track track : tracks) {
+                if (track.missed == 0) expected++;
+
+                Match match = search(bgr, classifier, track, windowLabels, windowMask, componentLabels, scope);
+                if (match == null) continue;
+
+                // two players merged into one blob: the blob goes to the closest one, the other is hidden
+                long key = ((long) match.x << 32) | match.y;
+                Match other = blobs.get(key);
+                if (other == null || match.distance < other.distance) blobs.put(key, match);
+            }
+        }
+
+        Set<Track> seen = new HashSet<>();
+        int found = 0;
+        for (Match match : blobs.values()) {
+            if (match.track.missed == 0) found++;
+
+            match.track.update(match.x, match.y);
+            match.track.width = match.width;
+            match.track.height = match.height;
+            seen.add(match.track);
+        }
+
+        ageUnseen(seen);
+
+        // new players only appear on keyframes, lost ones call for one now
+        if (found < expected * MIN_CONFIDENCE) isKeyframeDue = true;
+
+        // same order as the detection: blue players first
+        List<Player> players = new ArrayList<>();
+        for (boolean isBlueTeam : new boolean[] { true, false }) {
+            for (Track track : tracks) {
+                if (track.missed > 0 || track.isBlueTeam != isBlueTeam) continue;
+
+                Player player = new Player(new Point(track.x, track.y), track.isBlueTeam);
+                player.id = track.id;
+                players.add(player);
+            }
+        }
+        return players;
+    }
+
+    private Match search(Mat bgr, ColorClassifier classifier, Track track,
+    Mat windowLabels, Mat windowMask, Mat componentLabels, MatScope scope)
+    {
+        double predictedX = track.predictX();
+        double predictedY = track.predictY();
+        int radius = track.width == 0
+            ? INITIAL_SEARCH_RADIUS
+            : Math.max(track.width, track.height) / 2 + SEARCH_MARGIN * (track.missed + 1);
+
+        Rect window = clip(bgr, (int) predictedX - radius, (int) predictedY - radius,
+            (int) predictedX + radius + 1, (int) predictedY + radius + 1);
+
+        // a player bigger than the first window: search again over the whole blob once
+        for (int attempt = 0; attempt < 2 && window != null; attempt++) {
+            Mat roi = scope.track(bgr.submat(window));
+            classifier.classify(roi, windowLabels);
+            Core.compare(windowLabels, new Scalar(track.isBlueTeam ? ColorClassifier.BLUE : ColorClassifier.RED),
+                windowMask, Core.CMP_EQ);
+
+            Blobs blobs = ImageProcessingUtils.extractBlobs(windowMask, ImageProcessingUtils.MIN_PLAYER_AREA, componentLabels);
+            int closest = -1;
+            double closestDistance = track.getGate();
+            for (int j = 0; j < blobs.count; j++) {
+                double distance = Math.hypot(blobs.centroidX[j] + window.x - predictedX, blobs.centroidY[j] + window.y - predictedY);
+                if (distance <= closestDistance) {
+                    closest = j;
+                    closestDistance = distance;
+                }
+            }
+
+            if (closest < 0) return null;
+
+            if (!PyramidUtils.isCutByWindow(blobs, closest, window, bgr)) {
+                return new Match(track, (int) (blobs.centroidX[closest] + window.x), (int) (blobs.centroidY[closest] + window.y),
+                    blobs.width[closest], blobs.height[closest], closestDistance);
+            }
+
+            // the cut blob is at least this big, give it the same room again on every side
+            int left = window.x + blobs.left[closest];
+            int top = window.y + blobs.top[closest];
+            int size = Math.max(blobs.width[closest], blobs.height[closest]);
+            window = clip(bgr, left - size, top - size,
+                left + blobs.width[closest] + size, top + blobs.height[closest] + size);
+        }
+
+        return null;
+    }
+
+    private static Rect clip(Mat bgr, int left, int top, int right, int bottom) {
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(bgr.cols(), right);
+        bottom = Math.min(bgr.rows(), bottom);
+        return right > left && bottom > top ? new Rect(left, top, right - left, bottom - top) : null;
+    }
+
+    // tracks not seen in this frame, dropped once hidden for too long
+    private void ageUnseen(Set<Track> seen) {
+        Iterator<Track> iterator = tracks.iterator();
+        while (iterator.hasNext()) {
+            Track track = iterator.next();
+            if (seen.contains(track)) continue;
+
+            if (++track.missed > MAX_MISSED) iterator.remove();
+        }
+    }
+
+    /**
+     * Forgets every player, the next frame is a keyframe.
+     */
+    public void reset() {
+        tracks.clear();
+        isKeyframeDue = true;
+    }
+
+    public long getKeyframeCount()
+    { return keyframeCount; }
+
+    public long getTrackedFrameCount()
+    { return trackedFrameCount; }
+}
@@ -0,0 +1,178 @@
+package mg.itu.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+import mg.itu.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coarse-to-fine detection for large frames: blobs are found on a frame shrunk by an
+ * integer factor, then every blob is measured again on the full-resolution pixels of a
+ * small window around it. Positions are full-resolution ones, only the search is coarse.
+ */
+public class PyramidUtils {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // width of the coarse level aimed at by the automatic factor
+    public static final int TARGET_COARSE_WIDTH = 960;
+
+    public static int autoFactor(int width)
+    { return Math.max(1, width / TARGET_COARSE_WIDTH); }
+
+    /**
+     * Shrinks the image by an integer factor with area averaging. The image is first cropped
+     * to a multiple of the factor, so that OpenCV takes its fast integer path and coarse
+     * pixel (x, y) covers exactly the full-resolution pixels [x * f, x * f + f).
+     */
+    public static void downscale(Mat image, int factor, Mat coarse) {
+        int rows = image.rows() / factor * factor;
+        int cols = image.cols() / factor * factor;
+
+        Mat cropped = image.submat(0, rows, 0, cols);
+        Imgproc.resize(cropped, coarse, new Size(cols / factor, rows / factor), 0, 0, Imgproc.INTER_AREA);
+        cropped.release();
+    }
+
+    /**
+     * Full-resolution coordinate of the centre of a coarse pixel.
+     */
+    public static double toFullResolution(double coarse, int factor)
+    { return (coarse + 0.5) * factor - 0.5; }
+
+    /**
+     * Players of both teams, measured at full resolution around the blobs of the coarse labels.
+     */
+    public static List<Player> detectPlayers(Mat bgr, Mat coarseLabels, int factor, ColorClassifier classifier) {
+        List<Player> players = new ArrayList<>();
+        detectTeamPlayers(bgr, coarseLabels, factor, classifier, ColorClassifier.BLUE, true, players);
+        detectTeamPlayers(bgr, coarseLabels, factor, classifier, ColorClassifier.RED, false, players);
+        return players;
+    }
+
+    private static void detectTeamPlayers(Mat bgr, Mat coarseLabels, int factor, ColorClassifier classifier,
+    byte label, boolean isBlueTeam, List<Player> players)
+    {
+        // a lower bar on the coarse level, the exact area filter is applied at full resolution
+        Blobs coarse = findCoarseBlobs(coarseLabels, label, ImageProcessingUtils.MIN_PLAYER_AREA / (2 * factor * factor));
+
+        // windows of close players overlap, a blob seen from two windows is kept once
+        Set<Long> seen = new HashSet<>();
+
+        try (MatScope scope = new MatScope()) {
+            Mat windowLabels = scope.track(new Mat());
+            Mat windowMask = scope.track(new Mat());
+            Mat componentLabels = scope.track(new Mat());
+
+            for (int i = 0; i < coarse.count; i++) {
+                Rect window = getWindow(coarse, i, factor, bgr);
+                Mat roi = scope.track(bgr.submat(window));
+                classifier.classify(roi, windowLabels);
+                Core.compare(windowLabels, new Scalar(label), windowMask, Core.CMP_EQ);
+
+                Blobs fine = ImageProcessingUtils.extractBlobs(windowMask, ImageProcessingUtils.MIN_PLAYER_AREA, componentLabels);
+                for (int j = 0; j < fine.count; j++) {
+                    // cut by the window: the blob belongs to a neighbouring window
+                    if (isCutByWindow(fine, j, window, bgr)) continue;
+
+                    int x = (int) (fine.centroidX[j] + window.x);
+                    int y = (int) (fine.centroidY[j] + window.y);
+                    if (!seen.add(((long) x << 40) | ((long) y << 20) | fine.area[j])) continue;
+
+                    players.add(new Player(new Point(x, y), isBlueTeam));
+                }
+            }
+        }
+    }
+
+    /**
+     * Ball measured at full resolution around the ball blobs of the coarse labels, or null
+     * when the coarse level has no ball blob. Every blob is refined, a few pixels wide at the
+     * coarse level is too little to judge its shape: the ball is the contour scoring best
+     * over all windows, as picked by {@link ImageProcessingUtils#findBestBallContour}, so
+     * that a shadow or a dark line loses to a smaller disc as it does at full resolution.
+     */
+    public static Point detectBall(Mat bgr, Mat coarseLabels, int factor, ColorClassifier classifier) {
+        Blobs coarse = findCoarseBlobs(coarseLabels, ColorClassifier.BALL, 0);
+
+        Point ball = null;
+        double ballScore = 0;
+        for (int i = 0; i < coarse.count; i++) {
+            Rect window = getWindow(coarse, i, factor, bgr);
+
+            try (MatScope scope = new MatScope()) {
+                Mat roi = scope.track(bgr.submat(window));
+                Mat windowLabels = scope.track(new Mat());
+                Mat ballMask = scope.track(new Mat());
+                classifier.classify(roi, windowLabels);
+                Core.compare(windowLabels, new Scalar(ColorClassifier.BALL), ballMask, Core.CMP_EQ);
+
+                List<MatOfPoint> contours = new ArrayList<>();
+                Mat hierarchy = scope.track(new Mat());
+                Imgproc.findContours(ballMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+                scope.trackAll(contours);
+
+                int best = ImageProcessingUtils.findBestBallContour(contours);
+                if (best < 0) continue;
+
+                double score = ImageProcessingUtils.scoreBallContour(contours.get(best));
+                if (score <= ballScore) continue;
+
+                // same moments as the full-resolution detection, shifted by the window offset
+                Moments moments = Imgproc.moments(contours.get(best));
+                int ballX = (int) (moments.m10 / moments.m00 + window.x);
+                int ballY = (int) (moments.m01 / moments.m00 + window.y);
+                ball = new Point(ballX, ballY);
+                ballScore = score;
+            }
+        }
+
+        return ball;
+    }
+
+    private static Blobs findCoarseBlobs(Mat coarseLabels, byte label, int minArea) {
+        try (MatScope scope = new MatScope()) {
+            Mat mask = scope.acquire(coarseLabels.rows(), coarseLabels.cols(), coarseLabels.type());
+            Core.compare(coarseLabels, new Scalar(label), mask, Core.CMP_EQ);
+            return ImageProcessingUtils.extractBlobs(mask, minArea);
+        }
+    }
+
+    /**
+     * Full-resolution window over the coarse bounding box of a blob, with two coarse pixels
+     * of margin for the edges that area averaging blurred away.
+     */
+    private static Rect getWindow(Blobs coarse, int i, int factor, Mat bgr) {
+        int margin = 2 * factor;
+        int left = Math.max(0, coarse.left[i] * factor - margin);
+        int top = Math.max(0, coarse.top[i] * factor - margin);
+        int right = Math.min(bgr.cols(), (coarse.left[i] + coarse.width[i]) * factor + margin);
+        int bottom = Math.min(bgr.rows(), (coarse.top[i] + coarse.height[i]) * factor + margin);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Whether blob {@code j}, extracted from a window of the frame, touches a window edge that
+     * is not a frame edge: the object goes on outside and the blob is only part of it.
+     */
+    static boolean isCutByWindow(Blobs blobs, int j, Rect window, Mat bgr) {
+        return (blobs.left[j] == 0 && window.x > 0)
+            || (blobs.top[j] == 0 && window.y > 0)
+            || (blobs.left[j] + blobs.width[j] == window.width && window.x + window.width < bgr.cols())
+            || (blobs.top[j] + blobs.height[j] == window.height && window.y + window.height < bgr.rows());
+    }
+}
@@ -0,0 +1,341 @@
+package mg.itu.video;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import mg.itu.algo.Algo;
+import mg.itu.algo.Algo.FieldOrientation;
+import mg.itu.algo.FrameContext;
+import mg.itu.algo.OffsideDecision;
+import mg.itu.algo.PipelineMetrics;
+import mg.itu.algo.StageTimings;
+import mg.itu.entity.KitConfiguration;
+import mg.itu.utils.BallTracker;
+import mg.itu.utils.ColorClassifier;
+import mg.itu.utils.JsonUtils;
+import mg.itu.utils.PlayerTracker;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads a local video file (MP4, AVI, MJPEG, ...) with OpenCV and runs the offside
+ * rules on every frame, or on every Nth frame, producing a timeline of verdicts.
+ *
+ * Decoding stays on the calling thread while the analysis of the sampled frames is
+ * spread over a worker pool; verdicts are streamed to a listener in frame order and
+ * never kept, so memory stays flat however long the video.
+ */
+public class VideoAnalyzer {
+
+    static {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    public static class FrameVerdict {
+        public final int frameIndex;
+        public final double timestampMs;
+        public final OffsideDecision decision;
+        public final String error;
+        public final double analysisMs;
+
+        public FrameVerdict(int frameIndex, double timestampMs, OffsideDecision decision, String error, double analysisMs) {
+            this.frameIndex = frameIndex;
+            this.timestampMs = timestampMs;
+            this.decision = decision;
+            this.error = error;
+            this.analysisMs = analysisMs;
+        }
+
+        public boolean isOffside()
+        { return decision != null && decision.isOffside(); }
+
+        public double getOffsideLine()
+        { return decision == null ? Double.NaN : decision.getOffsideLine(); }
+
+        public String toJson() {
+            StringBuilder builder = new StringBuilder("{");
+            builder.append("\"frame\":").append(frameIndex)
+                   .append(",\"timeMs\":").append(JsonUtils.number(timestampMs));
+
+            if (decision != null) {
+                builder.append(",\"offside\":").append(decision.isOffside())
+                       .append(",\"attackingTeam\":").append(decision.isAttackingTeamBlue() ? "\"blue\"" : "\"red\"")
+                       .append(",\"offsideLine\":").append(JsonUtils.number(decision.getOffsideLine()))
+                       .append(",\"ball\":").append(JsonUtils.point(decision.ballCenter))
+                       .append(",\"offsidePlayers\":").append(decision.offsidePlayers.size());
+            } else {
+                builder.append(",\"error\":").append(JsonUtils.quote(error));
+            }
+
+            builder.append(",\"analysisMs\":").append(JsonUtils.number(analysisMs));
+            return builder.append('}').toString();
+        }
+    }
+
+    public interface TimelineListener {
+        void onFrame(FrameVerdict verdict);
+    }
+
+    // a frame submitted to the pool, with the context it owns until its analysis starts
+    private static class PendingFrame {
+        final FutureTask<FrameVerdict> task;
+        final FrameContext context;
+
+        PendingFrame(FutureTask<FrameVerdict> task, FrameContext context) {
+            this.task = task;
+            this.context = context;
+        }
+    }
+
+    private final FieldOrientation orientation;
+    private final boolean isReversedOrientation;
+    private final int frameStep;
+    private final int threads;
+    private final ColorClassifier classifier;
+    private int pyramidFactor = 1;
+    private int keyframeInterval;
+
+    /**
+     * @param frameStep analyze one frame out of {@code frameStep}, 1 for every frame
+     */
+    public VideoAnalyzer(FieldOrientation orientation, boolean isReversedOrientation, int frameStep, int threads) 
+    { this(orientation, isReversedOrientation, frameStep, threads, ColorClassifier.DEFAULT); }
+
+    public VideoAnalyzer(FieldOrientation orientation, boolean isReversedOrientation, int frameStep, int threads,
+    ColorClassifier classifier) 
+    {
+        this.orientation = orientation;
+        this.isReversedOrientation = isReversedOrientation;
+        this.frameStep = Math.max(1, frameStep);
+        this.threads = Math.max(1, threads);
+        this.classifier = classifier;
+    }
+
+    /**
+     * @param factor coarse-to-fine detection factor, 0 for automatic and 1 for full resolution
+     */
+    public void setPyramidFactor(int factor)
+    { this.pyramidFactor = factor; }
+
+    /**
+     * Follows the players and the ball from frame to frame instead of detecting them in every
+     * frame, with a full player detection at least once every {@code keyframeInterval} analyzed
+     * frames and a full ball search whenever the ball is lost. 0 (the default) detects them in
+     * every frame.
+     */
+    public void setKeyframeInterval(int keyframeInterval)
+    { this.keyframeInterval = keyframeInterval; }
+
+    /**
+     * Streams the verdict of every analyzed frame to the listener, in frame order.
+     *
+     * @return the number of analyzed frames
+     */
+    public int analyze(String videoPath, TimelineListener listener) throws Exception {
+        VideoCapture capture = new VideoCapture(videoPath);
+        if (!capture.isOpened())
+        { throw new Exception("Failed to open video: " + videoPath); }
+
+        double fps = capture.get(Videoio.CAP_PROP_FPS);
+        int analyzedCount = 0;
+
+        // frames are analyzed concurrently but emitted in order, the window bounds the decoded frames in memory
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<PendingFrame> pending = new ArrayDeque<>();
+        int window = threads * 2;
+
+        // tracking needs the frames in order, it runs here and the pool gets frames with their players
+        PlayerTracker tracker = keyframeInterval > 0 ? new PlayerTracker(keyframeInterval) : null;
+        BallTracker ballTracker = keyframeInterval > 0 ? new BallTracker() : null;
+
+        try {
+            for (int frameIndex = 0; ; frameIndex++) {
+                // skipped frames are only grabbed, never decoded into a Mat
+                if (!capture.grab()) break;
+                if (frameIndex % frameStep != 0) continue;
+
+                Mat frame = new Mat();
+                if (!capture.retrieve(frame) || frame.empty()) {
+                    frame.release();
+                    continue;
+                }
+
+                double timestampMs = fps > 0 ? frameIndex * 1000.0 / fps : capture.get(Videoio.CAP_PROP_POS_MSEC);
+                int index = frameIndex;
+
+                FrameContext context = createContext(frame);
+                if (tracker != null) {
+                    // the analysis detects the players and the ball itself when tracking failed
+                    try {
+                        tracker.track(context);
+                        ballTracker.track(context);
+                    }
+
+                    catch (Exception e) {
+                        tracker.reset();
+                        ballTracker.reset();
+                    }
+                }
+
+                FutureTask<FrameVerdict> task = new FutureTask<>(() -> analyzeFrame(index, timestampMs, context));
+                pending.addLast(new PendingFrame(task, context));
+                executor.execute(task);
+
+                if (pending.size() >= window) {
+                    emit(pending.removeFirst(), listener);
+                    analyzedCount++;
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                emit(pending.removeFirst(), listener);
+                analyzedCount++;
+            }
+        }
+
+        finally {
+            // on failure the queued frames never run, their contexts still hold the decoded Mats
+            Set<Runnable> neverStarted = Collections.newSetFromMap(new IdentityHashMap<>());
+            neverStarted.addAll(executor.shutdownNow());
+            for (PendingFrame frame : pending) {
+                frame.task.cancel(true);
+                if (neverStarted.contains(frame.task)) frame.context.close();
+            }
+            capture.release();
+        }
+
+        return analyzedCount;
+    }
+
+    private FrameContext createContext(Mat image) {
+        FrameContext frame = new FrameContext(image);
+        frame.setClassifier(classifier);
+        frame.setPyramidFactor(pyramidFactor);
+        return frame;
+    }
+
+    private FrameVerdict analyzeFrame(int frameIndex, double timestampMs, FrameContext context) {
+        long start = System.nanoTime();
+
+        // the context owns the decoded frame and frees it, with its conversions, once analyzed
+        try (FrameContext frame = context) {
+            OffsideDecision decision = Algo.evaluateOffside(frame, isReversedOrientation, orientation, new StageTimings());
+            return new FrameVerdict(frameIndex, timestampMs, decision, null, (System.nanoTime() - start) / 1e6);
+        }
+
+        catch (Exception e)
+        { return new FrameVerdict(frameIndex, timestampMs, null, e.getMessage(), (System.nanoTime() - start) / 1e6); }
+    }
+
+    private static void emit(PendingFrame frame, TimelineListener listener)
+        throws InterruptedException, ExecutionException
+    {
+        FrameVerdict verdict = frame.task.get();
+        if (listener != null) listener.onFrame(verdict);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: VideoAnalyzer <video-file> [options]");
+        System.err.println("  --orientation horizontal|vertical  field orientation (default: horizontal)");
+        System.err.println("  --reversed                         reversed side");
+        System.err.println("  --step N                           analyze every Nth frame (default: 1)");
+        System.err.println("  --threads N                        worker count (default: available cores)");
+        System.err.println("  --output FILE                      JSON lines timeline (default: stdout)");
+        System.err.println("  --kit FILE                         kit and ball colours (HSV ranges, see KitConfiguration)");
+        System.err.println("  --pyramid auto|N                   detect on a level shrunk N times, refine at full resolution");
+        System.err.println("  --track N                          follow the players, full detection every N analyzed frames");
+        System.err.println("  --metrics N                        print stage latency percentiles every N seconds, and at the end");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            printUsage();
+            System.exit(1);
+        }
+
+        FieldOrientation orientation = FieldOrientation.HORIZONTAL;
+        boolean isReversedOrientation = false;
+        int frameStep = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputPath = null;
+        KitConfiguration kit = KitConfiguration.DEFAULT;
+        int pyramidFactor = 1;
+        int keyframeInterval = 0;
+        int metricsInterval = 0;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--orientation": orientation = FieldOrientation.valueOf(args[++i].toUpperCase()); break;
+                case "--reversed": isReversedOrientation = true; break;
+                case "--step": frameStep = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--output": outputPath = args[++i]; break;
+                case "--kit": kit = KitConfiguration.load(args[++i]); break;
+                case "--track": keyframeInterval = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--metrics": metricsInterval = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--pyramid": i++; pyramidFactor = args[i].equals("auto") ? 0 : Math.max(1, Integer.parseInt(args[i])); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    printUsage();
+                    System.exit(1);
+            }
+        }
+
+        // the pool already uses every core, keep OpenCV from spawning its own threads on top
+        Core.setNumThreads(1);
+
+        Writer output = outputPath == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+            : new BufferedWriter(new FileWriter(outputPath, StandardCharsets.UTF_8));
+
+        ColorClassifier classifier = ColorClassifier.forKit(kit);
+        VideoAnalyzer analyzer = new VideoAnalyzer(orientation, isReversedOrientation, frameStep, threads, classifier);
+        analyzer.setPyramidFactor(pyramidFactor);
+        analyzer.setKeyframeInterval(keyframeInterval);
+        if (metricsInterval > 0) PipelineMetrics.startReporting(metricsInterval, System.err);
+        long start = System.nanoTime();
+        int analyzedCount;
+
+        try {
+            analyzedCount = analyzer.analyze(args[0], verdict -> {
+                try {
+                    output.write(verdict.toJson());
+                    output.write('\n');
+                }
+
+                catch (IOException e)
+                { throw new RuntimeException(e); }
+            });
+        }
+
+        finally {
+            if (outputPath == null) output.flush();
+            else output.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Analyzed %d frames in %.1f s with %d workers, %.1f frames/s%n",
+            analyzedCount, seconds, threads, analyzedCount / Math.max(seconds, 1e-9));
+
+        if (metricsInterval > 0) {
+            PipelineMetrics.stopReporting();
+            System.err.println(PipelineMetrics.snapshot());
+        }
+    }
+}